@@ -0,0 +1,83 @@
+package fastype.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Markdown inputs shared by benchmarks.
+ */
+public class Documents {
+    private static final String sampleFile = "src/test/assets/sample.md";
+
+    /**
+     * Loads a document by name, either `sample` (src/test/assets/sample.md) or a synthetic document of given size
+     * such as `100k` or `5m`.
+     */
+    public static String load(String name) {
+        if (name.equals("sample")) {
+            return sample();
+        }
+
+        String size = name.toLowerCase();
+        int unit = size.endsWith("m") ? 1024 * 1024 : size.endsWith("k") ? 1024 : 1;
+        String digits = unit == 1 ? size : size.substring(0, size.length() - 1);
+        return synthetic(Integer.parseInt(digits) * unit);
+    }
+
+    public static String sample() {
+        // benchmarks are run either from the project root or from `benchmarks`
+        for (Path path : new Path[] { Paths.get(sampleFile), Paths.get("..", sampleFile) }) {
+            if (Files.exists(path)) {
+                try {
+                    return Files.readString(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        throw new IllegalStateException(sampleFile + " not found, run benchmarks from the project root");
+    }
+
+    /**
+     * Generates a document of at least `length` characters, heavy on code blocks, tables, inline code and images.
+     */
+    public static String synthetic(int length) {
+        StringBuilder builder = new StringBuilder(length + 2048);
+        builder.append("---\n")
+                .append("title: synthetic document\n")
+                .append("subtitle: ").append(length).append(" characters\n")
+                .append("---\n\n");
+
+        for (int section = 0; builder.length() < length; section++) {
+            builder.append("# Section ").append(section).append("\n\n")
+                    .append("Paragraph with `inline code`, *emphasis*, **strong** text and a ")
+                    .append("[link](https://example.com/posts/").append(section).append(").\n")
+                    .append("이 문단은 `HttpClient`와 `CompletableFuture`를 사용하는 예제를 설명합니다.\n\n")
+                    .append("```java\n")
+                    .append("public class Example").append(section).append(" {\n")
+                    .append("    public static void main(String[] args) {\n")
+                    .append("        List<String> values = List.of(\"a\", \"b\", \"c\");\n")
+                    .append("        for (String value : values) {\n")
+                    .append("            System.out.println(value + \" & \" + value.length());\n")
+                    .append("        }\n")
+                    .append("    }\n")
+                    .append("}\n")
+                    .append("```\n\n")
+                    .append("| language | typed | `code` |\n")
+                    .append("|---|---|---|\n")
+                    .append("| Java | O | `int x = 1;` |\n")
+                    .append("| Go | O | `x := 1` |\n")
+                    .append("| Python | X | `x = 1` |\n\n")
+                    .append("![screenshot ").append(section).append("](https://example.com/images/")
+                    .append(section).append(".png)\n\n")
+                    .append("> quoted text with `code` inside\n\n")
+                    .append("- item with `code`\n")
+                    .append("- item with [link](https://example.com)\n\n");
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,50 @@
+package fastype.benchmarks;
+
+import fastype.FileHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * `FileHelper.readFile` against reading lines and joining them, which is what it used to do.
+ *
+ * Run with `java -jar benchmarks/target/benchmarks.jar FileHelperBenchmark -prof gc` to compare allocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx1g" })
+@State(Scope.Benchmark)
+public class FileHelperBenchmark {
+    @Param({ "100k", "5m", "50m" })
+    String document;
+
+    Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("fastype", ".md");
+        Files.writeString(file, Documents.load(document));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public String readFile() throws IOException {
+        return FileHelper.readFile(file);
+    }
+
+    @Benchmark
+    public String readAllLines() throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        return String.join("\n", lines);
+    }
+}
@@ -0,0 +1,58 @@
+package fastype.benchmarks;
+
+import fastype.MarkdownRenderer;
+import fastype.PostypeMarkdownEngine;
+import fastype.RenderResult;
+import org.commonmark.node.Node;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse and render measured separately, plus `collectImages`/`collectFrontMatter` through `MarkdownRenderer`.
+ *
+ * Run with `java -jar benchmarks/target/benchmarks.jar MarkdownRendererBenchmark -prof gc` to report allocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MarkdownRendererBenchmark {
+    @Param({ "sample", "100k", "1m", "5m" })
+    String document;
+
+    PostypeMarkdownEngine engine;
+    String markdown;
+    Node parsed;
+
+    @Setup
+    public void setup() {
+        engine = PostypeMarkdownEngine.getDefault();
+        markdown = Documents.load(document);
+        parsed = engine.parse(markdown);
+    }
+
+    @Benchmark
+    public Node parse() {
+        return engine.parse(markdown);
+    }
+
+    @Benchmark
+    public RenderResult render() {
+        return engine.render(parsed);
+    }
+
+    @Benchmark
+    public List<String> collectImages() {
+        return new MarkdownRenderer(markdown, engine).collectImages();
+    }
+
+    @Benchmark
+    public Map<String, List<String>> collectFrontMatter() {
+        return new MarkdownRenderer(markdown, engine).collectFrontMatter();
+    }
+}
@@ -0,0 +1,52 @@
+package fastype.benchmarks;
+
+import fastype.MarkdownRenderer;
+import fastype.RenderResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and rendering a whole document on one thread against on a fork-join pool of `threads` threads.
+ *
+ * Run with `java -jar benchmarks/target/benchmarks.jar ParallelRenderBenchmark -p threads=4,8,16` to compare pool
+ * sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+@State(Scope.Benchmark)
+public class ParallelRenderBenchmark {
+    @Param({ "1m", "5m" })
+    String document;
+
+    @Param({ "4" })
+    int threads;
+
+    String markdown;
+    ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        markdown = Documents.load(document);
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public RenderResult sequential() {
+        return new MarkdownRenderer(markdown).renderResult();
+    }
+
+    @Benchmark
+    public RenderResult parallel() {
+        return new MarkdownRenderer(markdown, pool).renderResult();
+    }
+}
@@ -0,0 +1,88 @@
+package fastype.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from launching `fastype` until its first byte of output, with and without the class data sharing archive.
+ *
+ * Requires `mvn package` in the project root first and must be run from there.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+    private static final Path jar = Paths.get("target/fastype-0.0.1.jar");
+    private static final Path archive = Paths.get("target/fastype.jsa");
+
+    @Param({ "config", "draft" })
+    String command;
+
+    @Param({ "true", "false" })
+    boolean cds;
+
+    List<String> commandLine;
+    Process process;
+
+    @Setup
+    public void setup() {
+        if (Files.notExists(jar)) {
+            throw new IllegalStateException(jar + " not found, run `mvn package` and benchmarks from the project root");
+        }
+
+        commandLine = new ArrayList<>();
+        commandLine.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+
+        if (cds) {
+            if (Files.notExists(archive)) {
+                throw new IllegalStateException(archive + " not found, run `mvn package` without -Dcds.skip");
+            }
+            commandLine.add("-XX:SharedArchiveFile=" + archive.toAbsolutePath());
+            commandLine.add("-Xshare:auto");
+        }
+
+        commandLine.add("-cp");
+        commandLine.add(jar.toAbsolutePath().toString());
+        commandLine.add("fastype.Fastype");
+
+        if (command.equals("config")) {
+            // prints that key and value are missing
+            commandLine.add("config");
+        } else {
+            // loads config and prints that nothing matches, without touching network
+            commandLine.add("draft");
+            commandLine.add("--dir");
+            commandLine.add(System.getProperty("java.io.tmpdir") + File.separator + "fastype-startup-benchmark-*.md");
+        }
+    }
+
+    @Benchmark
+    public int timeToFirstOutput() throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(commandLine).redirectErrorStream(true);
+        builder.environment().put("FASTYPE_NO_DAEMON", "1");
+        process = builder.start();
+        return process.getInputStream().read();
+    }
+
+    // outside of the measured time
+    @TearDown(Level.Invocation)
+    public void waitForExit() throws IOException, InterruptedException {
+        try (InputStream out = process.getInputStream()) {
+            out.transferTo(OutputStream.nullOutputStream());
+        }
+        process.waitFor();
+    }
+}
@@ -8,7 +8,6 @@ import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.openqa.selenium.support.ui.WebDriverWait;
 
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.Map;
 import java.util.Set;
 
@@ -18,13 +17,12 @@ public class Auth {
     private static WebDriver driver;
 
     private Auth() throws Exception {
-        String webdriverPath = Config.get("webdriverPath");
+        Path chromeDriverPath = Config.webdriverPath();
 
-        if (webdriverPath == null) {
+        if (chromeDriverPath == null) {
             log.debug("You need to set `webdriverPath` using `fastype config --key webdriverPath --value /path/to/webdriver/executable`");
             throw new Exception("Missing Config");
         }
-        Path chromeDriverPath = Paths.get(webdriverPath);
         System.setProperty("webdriver.chrome.driver", chromeDriverPath.normalize().toString());
         driver = new ChromeDriver();
     }
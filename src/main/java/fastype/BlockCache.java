@@ -0,0 +1,112 @@
+package fastype;
+
+import org.commonmark.node.Node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Html of the top-level blocks of the last rendered document, so that rendering an edited version of it only parses
+ * and renders the blocks which changed.
+ *
+ * Blocks are found by {@link BlockSplitter} and looked up by their markdown, and the result is the same as rendering
+ * the whole document. Only the blocks of the last render are kept, so the cache is as large as one document.
+ */
+public class BlockCache {
+    private final PostypeMarkdownEngine engine;
+
+    // markdown of a block -> its last render
+    private Map<String, Fragment> fragments = new HashMap<>();
+
+    public BlockCache() {
+        this(PostypeMarkdownEngine.getDefault());
+    }
+
+    public BlockCache(PostypeMarkdownEngine engine) {
+        this.engine = engine;
+    }
+
+    PostypeMarkdownEngine engine() {
+        return engine;
+    }
+
+    /**
+     * Splits `markdown` into blocks, parsing those which were not rendered last time.
+     */
+    synchronized List<Block> blocks(String markdown) {
+        List<Block> blocks = new ArrayList<>();
+        for (String source : BlockSplitter.split(markdown)) {
+            Fragment fragment = fragments.get(source);
+            blocks.add(new Block(source, fragment, fragment == null ? engine.parse(source) : null));
+        }
+        return blocks;
+    }
+
+    /**
+     * Renders `blocks` of a document, reusing the html of blocks which were rendered with the same image sources.
+     */
+    synchronized RenderResult render(List<Block> blocks, Function<String, String> imageSources) {
+        Map<String, Fragment> rendered = new HashMap<>();
+        List<RenderResult> results = new ArrayList<>(blocks.size());
+
+        for (Block block : blocks) {
+            // the same block may appear more than once, e.g. `TODO`
+            Fragment fragment = rendered.getOrDefault(block.source, block.fragment);
+
+            if (fragment == null || !fragment.renderedWith(imageSources)) {
+                Node document = block.document != null ? block.document : engine.parse(block.source);
+                fragment = new Fragment(engine.renderFragment(document, imageSources), imageSources);
+                Metrics.count("blockCache.miss");
+            } else {
+                Metrics.count("blockCache.hit");
+            }
+
+            rendered.put(block.source, fragment);
+            results.add(fragment.result);
+        }
+
+        fragments = rendered;
+        return RenderResult.concat(results);
+    }
+
+    static class Block {
+        final String source;
+        // last render of the block, or null
+        final Fragment fragment;
+        // parsed block, or null if it has a fragment
+        final Node document;
+
+        Block(String source, Fragment fragment, Node document) {
+            this.source = source;
+            this.fragment = fragment;
+            this.document = document;
+        }
+    }
+
+    static class Fragment {
+        final RenderResult result;
+        // `src` each image was rendered with
+        final List<String> sources;
+
+        Fragment(RenderResult result, Function<String, String> imageSources) {
+            this.result = result;
+            this.sources = new ArrayList<>(result.getImages().size());
+            for (String image : result.getImages()) {
+                sources.add(imageSources.apply(image));
+            }
+        }
+
+        boolean renderedWith(Function<String, String> imageSources) {
+            List<String> images = result.getImages();
+            for (int i = 0; i < images.size(); i++) {
+                if (!imageSources.apply(images.get(i)).equals(sources.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package fastype;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits markdown into runs of top-level blocks which parse and render the same on their own as in the document.
+ *
+ * A run only ends before a line which follows a blank line, is not indented and can't continue what came before it
+ * (a list item, `---` or `===`), outside of front matter, fenced code and html blocks which may contain blank lines.
+ * Where the line scan can't tell a block's container without parsing, e.g. a fence indented as if in a list item,
+ * the rest of the document is left as one run. Link reference definitions apply to the whole document, so markdown
+ * which may have one is never split.
+ */
+class BlockSplitter {
+    private static final Pattern fencePattern = Pattern.compile("^ {0,3}(`{3,}|~{3,})(.*)$");
+    private static final Pattern listItemPattern = Pattern.compile("^[0-9]{1,9}[.)]");
+    private static final Pattern frontMatterStart = Pattern.compile("^-{3}(\\s.*)?$");
+    private static final Pattern frontMatterEnd = Pattern.compile("^(-{3}|\\.{3})(\\s.*)?$");
+
+    // html blocks which don't end at a blank line, and what ends each of them
+    private static final Pattern[][] htmlBlocks = {
+            { Pattern.compile("^ {0,3}<(?:script|pre|style)(?:\\s|>|$)", Pattern.CASE_INSENSITIVE), Pattern.compile("</(?:script|pre|style)>", Pattern.CASE_INSENSITIVE) },
+            { Pattern.compile("^ {0,3}<!--"), Pattern.compile("-->") },
+            { Pattern.compile("^ {0,3}<[?]"), Pattern.compile("\\?>") },
+            { Pattern.compile("^ {0,3}<![A-Z]"), Pattern.compile(">") },
+            { Pattern.compile("^ {0,3}<!\\[CDATA\\["), Pattern.compile("\\]\\]>") },
+    };
+
+    static List<String> split(String markdown) {
+        return split(markdown, 0);
+    }
+
+    /**
+     * Splits `markdown` into runs of at least `minLength` characters (but the last), which joined are `markdown`.
+     */
+    static List<String> split(String markdown, int minLength) {
+        List<String> runs = new ArrayList<>();
+        if (mayDefineLinkReferences(markdown)) {
+            runs.add(markdown);
+            return runs;
+        }
+
+        int runStart = 0;
+        int lineStart = 0;
+        boolean previousBlank = false;
+
+        // front matter may follow blank lines, and takes the rest of the document if it's never closed
+        while (lineStart < markdown.length() && isBlank(line(markdown, lineStart))) {
+            lineStart += line(markdown, lineStart).length() + 1;
+        }
+        String firstLine = lineStart < markdown.length() ? line(markdown, lineStart) : "";
+        if (frontMatterStart.matcher(firstLine).matches()) {
+            int end = -1;
+            for (int start = lineStart + firstLine.length() + 1; start < markdown.length(); start += line(markdown, start).length() + 1) {
+                if (frontMatterEnd.matcher(line(markdown, start)).matches()) {
+                    end = start + line(markdown, start).length() + 1;
+                    break;
+                }
+            }
+            if (end < 0) {
+                runs.add(markdown);
+                return runs;
+            }
+            lineStart = end;
+        }
+
+        // closing fence of the open fenced code block, html block end or whether an html line may be a paragraph
+        Matcher fence = null;
+        Pattern htmlEnd = null;
+        boolean maybeHtml = false;
+
+        while (lineStart < markdown.length()) {
+            String line = line(markdown, lineStart);
+            int indent = indent(line);
+            boolean blank = isBlank(line);
+
+            if (fence != null) {
+                if (closes(fence, line)) {
+                    fence = null;
+                }
+            } else if (htmlEnd != null) {
+                if (htmlEnd.matcher(line).find()) {
+                    htmlEnd = null;
+                }
+            } else if (blank) {
+                maybeHtml = false;
+            } else {
+                char first = indent <= 3 ? line.charAt(indent) : ' ';
+                Matcher opening = first == '`' || first == '~' ? fencePattern.matcher(line) : null;
+                if (opening != null && (!opening.matches() || (opening.group(1).charAt(0) == '`' && opening.group(2).indexOf('`') >= 0))) {
+                    opening = null;
+                }
+                Pattern[] html = first == '<' ? htmlBlock(line) : null;
+
+                // in a list item or not, in an html block or a paragraph: the scan can't follow what comes next
+                if ((opening != null || html != null) && (indent > 0 || maybeHtml)) {
+                    runs.add(markdown.substring(runStart));
+                    return runs;
+                }
+
+                if (previousBlank && indent == 0 && startsBlock(line) && lineStart - runStart >= minLength && lineStart > runStart) {
+                    runs.add(markdown.substring(runStart, lineStart));
+                    runStart = lineStart;
+                }
+
+                if (opening != null) {
+                    fence = opening;
+                } else if (html != null) {
+                    // the end may be on the same line, e.g. `<!-- comment -->`
+                    htmlEnd = html[1].matcher(line).find() ? null : html[1];
+                } else if (first == '<') {
+                    maybeHtml = true;
+                }
+            }
+
+            previousBlank = blank;
+            lineStart += line.length() + 1;
+        }
+
+        runs.add(markdown.substring(runStart));
+        return runs;
+    }
+
+    private static String line(String markdown, int start) {
+        int end = markdown.indexOf('\n', start);
+        return markdown.substring(start, end < 0 ? markdown.length() : end);
+    }
+
+    // columns of leading whitespace, a tab counts as 4 so that a tab indented line is never seen as top-level
+    private static int indent(String line) {
+        int i = 0;
+        while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t' || line.charAt(i) == '\r')) {
+            if (line.charAt(i) == '\t') {
+                return 4;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isBlank(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsBlock(String line) {
+        char c = line.charAt(0);
+        return c != '-' && c != '+' && c != '*' && c != '=' && !(c >= '0' && c <= '9' && listItemPattern.matcher(line).lookingAt());
+    }
+
+    private static boolean closes(Matcher fence, String line) {
+        String marker = fence.group(1);
+        int indent = indent(line);
+        if (indent > 3) {
+            return false;
+        }
+
+        int i = indent;
+        while (i < line.length() && line.charAt(i) == marker.charAt(0)) {
+            i++;
+        }
+        return i - indent >= marker.length() && line.substring(i).trim().isEmpty();
+    }
+
+    private static Pattern[] htmlBlock(String line) {
+        for (Pattern[] block : htmlBlocks) {
+            if (block[0].matcher(line).lookingAt()) {
+                return block;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether a line (in any container) starts with `[` and `]:` follows within the longest label allowed.
+     */
+    private static boolean mayDefineLinkReferences(String markdown) {
+        int lineStart = 0;
+        while (lineStart < markdown.length()) {
+            int i = lineStart;
+            while (i < markdown.length() && " \t>".indexOf(markdown.charAt(i)) >= 0) {
+                i++;
+            }
+            if (i < markdown.length() && markdown.charAt(i) != '[') {
+                // list item markers
+                int j = i;
+                while (j < markdown.length() && (Character.isDigit(markdown.charAt(j)) || "-+*.)".indexOf(markdown.charAt(j)) >= 0)) {
+                    j++;
+                }
+                if (j > i) {
+                    while (j < markdown.length() && " \t>".indexOf(markdown.charAt(j)) >= 0) {
+                        j++;
+                    }
+                    i = j;
+                }
+            }
+
+            if (i < markdown.length() && markdown.charAt(i) == '[') {
+                int end = markdown.indexOf("]:", i);
+                if (end >= 0 && end - i <= 1000) {
+                    return true;
+                }
+            }
+
+            int next = markdown.indexOf('\n', lineStart);
+            if (next < 0) {
+                break;
+            }
+            lineStart = next + 1;
+        }
+        return false;
+    }
+}
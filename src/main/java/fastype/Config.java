@@ -14,38 +14,148 @@ import java.net.URL;
 import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 public class Config {
-    private static final Path configDir = Path.of(System.getProperty("user.home") + "/.config/fastype");
-    private static final File configFile = new File(configDir.normalize().toString() + "/config.yaml");
-    private static Map<String, String> config = new HashMap<>();
+    private static final Path defaultFile = Path.of(System.getProperty("user.home") + "/.config/fastype/config.yaml");
+    private static volatile File configFile = defaultFile.toFile();
     private static final ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory());
 
+    // values read from `configFile`, replaced as a whole when the file changes
+    private static volatile Snapshot snapshot = new Snapshot(Map.of(), -1, -1);
+    // values given by `set` which are not written yet
+    private static final Map<String, String> pending = new ConcurrentHashMap<>();
+    // finds the id of the blog at a url when `blogUrl` is set
+    private static volatile BlogIdLookup blogIdLookup = Config::getBlogId;
+
+    /**
+     * Reads and writes config from `file` instead of the user's, e.g. in tests. Values not written yet are dropped.
+     */
+    static synchronized void setFile(Path file) {
+        configFile = file.toFile();
+        pending.clear();
+        snapshot = new Snapshot(Map.of(), -1, -1);
+    }
+
+    /**
+     * Finds blog ids with `lookup` instead of reading the blog's page, e.g. in tests. Null restores the default.
+     */
+    static void setBlogIdLookup(BlogIdLookup lookup) {
+        blogIdLookup = lookup != null ? lookup : Config::getBlogId;
+    }
+
     public static void write() {
         try {
-            Files.createDirectories(configDir);
-            load();
-            yamlMapper.writeValue(configFile, config);
+            Files.createDirectories(configFile.toPath().toAbsolutePath().getParent());
+            Map<String, String> content = new TreeMap<>(load().values);
+            content.putAll(pending);
+            yamlMapper.writeValue(configFile, content);
+            pending.clear();
+            reload();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    public static void load() {
-        try {
-            Map content = yamlMapper.readValue(configFile, Map.class);
-            ((Map<String, String>) content).forEach(config::putIfAbsent);
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Returns the current snapshot of config, reading the file again only if it has changed since it was last read.
+     */
+    public static Snapshot load() {
+        Snapshot current = snapshot;
+        long modifiedAt = configFile.lastModified();
+        long size = configFile.length();
+
+        if (current.modifiedAt == modifiedAt && current.size == size) {
+            return current;
         }
+
+        synchronized (Config.class) {
+            if (snapshot.modifiedAt != modifiedAt || snapshot.size != size) {
+                reload();
+            }
+            return snapshot;
+        }
+    }
+
+    private static synchronized void reload() {
+        long startedAt = System.nanoTime();
+        long modifiedAt = configFile.lastModified();
+        long size = configFile.length();
+        Map<String, String> values = new HashMap<>();
+
+        if (configFile.exists()) {
+            try {
+                Map<?, ?> content = yamlMapper.readValue(configFile, Map.class);
+                if (content != null) {
+                    // numbers such as `blogId` may be written without quotes
+                    content.forEach((key, value) -> {
+                        if (key != null && value != null) {
+                            values.put(key.toString(), value.toString());
+                        }
+                    });
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        snapshot = new Snapshot(Map.copyOf(values), modifiedAt, size);
+        Metrics.timer("config.load").recordSince(startedAt);
     }
 
     public static String get(String key) {
-        load();
-        return config.get(key);
+        String value = pending.get(key);
+        if (value != null) {
+            return value;
+        }
+        return load().values.get(key);
+    }
+
+    public static String token() {
+        return get("token");
+    }
+
+    public static String blogUrl() {
+        return get("blogUrl");
+    }
+
+    public static Integer blogId() {
+        String blogId = get("blogId");
+        return blogId != null ? Integer.valueOf(blogId) : null;
+    }
+
+    /**
+     * Endpoint local images are uploaded to, overridable in case Postype moves it.
+     */
+    public static String imageUploadUrl() {
+        String imageUploadUrl = get("imageUploadUrl");
+        return imageUploadUrl != null ? imageUploadUrl : PostypeClient.baseUrl + "/api/upload/image";
+    }
+
+    public static Path webdriverPath() {
+        String webdriverPath = get("webdriverPath");
+        return webdriverPath != null ? Paths.get(webdriverPath) : null;
+    }
+
+    public static class Snapshot {
+        private final Map<String, String> values;
+        private final long modifiedAt;
+        private final long size;
+
+        private Snapshot(Map<String, String> values, long modifiedAt, long size) {
+            this.values = values;
+            this.modifiedAt = modifiedAt;
+            this.size = size;
+        }
+
+        public Map<String, String> values() {
+            return values;
+        }
     }
 
     public static void set(String key, String value) {
@@ -57,22 +167,27 @@ public class Config {
                 // normalize url
                 normalizedUrl = normalizedUrl.replaceAll("/$", "");
 
-                int blogId = getBlogId(normalizedUrl);
+                int blogId = blogIdLookup.find(normalizedUrl);
 
                 if (blogId == -1) {
                     return;
                 }
 
-                config.put("blogId", String.valueOf(blogId));
-                config.put("blogUrl", normalizedUrl);
+                pending.put("blogId", String.valueOf(blogId));
+                pending.put("blogUrl", normalizedUrl);
             } else {
-                config.put(key, value);
+                pending.put(key, value);
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    interface BlogIdLookup {
+        // -1 if there's no blog at `blogUrl`
+        int find(String blogUrl) throws IOException;
+    }
+
     private static int getBlogId(String blogUrl) throws IOException {
         try {
             Document doc = Jsoup.connect(blogUrl).get();
@@ -0,0 +1,186 @@
+package fastype;
+
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.Properties;
+
+/**
+ * Keeps a warmed up JVM (renderer, `Config`, `HttpClient`) resident so that `fastype` invocations skip startup.
+ *
+ * The daemon listens on a loopback port written to `daemon.properties` along with a random token which only the
+ * owner of the file can read. {@link DaemonClient} sends its working directory and argv, and the daemon runs the
+ * command with stdout/stderr streamed back as frames followed by the exit code. Commands are run one at a time as
+ * they share `System.out`.
+ */
+@Slf4j
+public class Daemon {
+    private static volatile Daemon running;
+
+    private final ServerSocket server;
+    private final String token;
+    private volatile boolean stopped;
+
+    private Daemon() throws IOException {
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : secret) {
+            hex.append(String.format("%02x", b));
+        }
+        token = hex.toString();
+    }
+
+    public static Daemon start() throws IOException {
+        Daemon daemon = new Daemon();
+        daemon.writeDaemonFile();
+        running = daemon;
+        return daemon;
+    }
+
+    /**
+     * Stops the daemon this is called in, returns false if not running inside a daemon.
+     */
+    public static boolean stopRunning() {
+        Daemon daemon = running;
+        if (daemon == null) {
+            return false;
+        }
+        daemon.stopped = true;
+        return true;
+    }
+
+    private void writeDaemonFile() throws IOException {
+        Files.createDirectories(DaemonClient.daemonFile.getParent());
+        Path tmp = Files.createTempFile(DaemonClient.daemonFile.getParent(), "daemon", ".tmp");
+
+        try {
+            Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException ignored) {
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty("port", String.valueOf(server.getLocalPort()));
+        properties.setProperty("token", token);
+        properties.setProperty("pid", String.valueOf(ProcessHandle.current().pid()));
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            properties.store(out, null);
+        }
+        Files.move(tmp, DaemonClient.daemonFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Warms up and serves requests until stopped.
+     */
+    public void serve() throws IOException {
+        warmUp();
+        log.debug("daemon listening on port {}", server.getLocalPort());
+
+        try {
+            while (!stopped) {
+                try (Socket socket = server.accept()) {
+                    handle(socket);
+                } catch (IOException e) {
+                    log.debug("request failed: {}", e.getMessage());
+                }
+            }
+        } finally {
+            server.close();
+            running = null;
+            Files.deleteIfExists(DaemonClient.daemonFile);
+            log.debug("daemon stopped");
+        }
+    }
+
+    private void warmUp() {
+        long startedAt = System.nanoTime();
+        Warmup.run(2000);
+
+        log.debug("warmed up in {} ms", (System.nanoTime() - startedAt) / 1_000_000);
+    }
+
+    private void handle(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        if (!token.equals(in.readUTF())) {
+            log.debug("rejected request with invalid token");
+            return;
+        }
+
+        String workingDirectory = in.readUTF();
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream frameOut = new PrintStream(new FrameOutputStream(out, DaemonClient.STDOUT), true, StandardCharsets.UTF_8);
+        PrintStream frameErr = new PrintStream(new FrameOutputStream(out, DaemonClient.STDERR), true, StandardCharsets.UTF_8);
+
+        int exitCode;
+        System.setOut(frameOut);
+        System.setErr(frameErr);
+        FileHelper.setWorkingDirectory(Paths.get(workingDirectory));
+        try {
+            CommandLine commandLine = Fastype.commandLine(args);
+            commandLine.setOut(new PrintWriter(frameOut, true));
+            commandLine.setErr(new PrintWriter(frameErr, true));
+            exitCode = commandLine.execute(args);
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+            FileHelper.setWorkingDirectory(null);
+        }
+
+        synchronized (out) {
+            out.writeByte(DaemonClient.EXIT);
+            out.writeInt(exitCode);
+            out.flush();
+        }
+    }
+
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte type;
+
+        FrameOutputStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(bytes, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
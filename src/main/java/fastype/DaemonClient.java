@@ -0,0 +1,101 @@
+package fastype;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Forwards a command to a running {@link Daemon}.
+ *
+ * This runs before anything else on every invocation, so it must stay cheap to load: no logging, no picocli.
+ */
+public class DaemonClient {
+    static final Path daemonFile = Path.of(System.getProperty("user.home") + "/.config/fastype/daemon.properties");
+    private static final int connectTimeoutMillis = 200;
+
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte EXIT = 0;
+
+    /**
+     * Whether `args` can be run by a daemon, long running commands are always run in process.
+     */
+    public static boolean canForward(String[] args) {
+        if (System.getenv("FASTYPE_NO_DAEMON") != null) {
+            return false;
+        }
+        // a recording covers this process, not a daemon started before it, and the daemon can't read our stdin
+        return !Arrays.asList(args).contains("--watch") &&
+                !Arrays.asList(args).contains("-") && !Arrays.asList(args).contains("--content=-") &&
+                Arrays.stream(args).noneMatch(arg -> arg.equals("--jfr") || arg.startsWith("--jfr=")) &&
+                !(args.length > 0 && args[0].equals("daemon") && !Arrays.asList(args).contains("--stop"));
+    }
+
+    /**
+     * Runs `args` on a running daemon.
+     *
+     * @return exit code of the command, or null if no daemon is running
+     */
+    public static Integer forward(String[] args) {
+        if (Files.notExists(daemonFile)) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(daemonFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+
+        Socket socket = new Socket();
+        try {
+            int port = Integer.parseInt(properties.getProperty("port"));
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), connectTimeoutMillis);
+        } catch (IOException | NumberFormatException e) {
+            // daemon is gone without cleaning up
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+
+        try (socket) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(properties.getProperty("token", ""));
+            out.writeUTF(Paths.get("").toAbsolutePath().toString());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                byte type = in.readByte();
+                if (type == EXIT) {
+                    return in.readInt();
+                }
+
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                PrintStream target = type == STDERR ? System.err : System.out;
+                target.write(bytes);
+                target.flush();
+            }
+        } catch (EOFException e) {
+            System.err.println("fastype daemon closed the connection");
+            return 1;
+        } catch (IOException e) {
+            System.err.println("fastype daemon failed: " + e.getMessage());
+            return 1;
+        }
+    }
+}
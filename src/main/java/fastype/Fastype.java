@@ -2,27 +2,126 @@ package fastype;
 
 import fastype.cmd.AuthCommand;
 import fastype.cmd.ConfigCommand;
+import fastype.cmd.DaemonCommand;
 import fastype.cmd.DraftCommand;
+import fastype.cmd.IndexCommand;
+import jdk.jfr.Recording;
 import picocli.CommandLine;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
 @CommandLine.Command(
         name = "fastype",
-        description = "Fastype is an automation tool to help you convert your markdown files into Postype compatible html and upload it for you",
-        subcommands = {
-                AuthCommand.class,
-                DraftCommand.class,
-                ConfigCommand.class
-        }
+        description = "Fastype is an automation tool to help you convert your markdown files into Postype compatible html and upload it for you"
 )
 public class Fastype implements Callable<Integer> {
+    // registered by hand instead of `@Command(subcommands)` so that picocli only introspects the command being run
+    private static final Map<String, Class<?>> subcommands = new LinkedHashMap<>();
+
+    // time from jvm start to `main`, reported by the first command only: a daemon runs commands long after its start
+    private static final AtomicLong startupNanos = new AtomicLong();
+
+    @CommandLine.Option(names = { "--metrics" }, description = "print timings, bytes sent/received and cache hit rates at the end: ${COMPLETION-CANDIDATES}")
+    MetricsFormat metrics;
+
+    enum MetricsFormat { json, text }
+
+    @CommandLine.Option(names = { "--jfr" }, paramLabel = "<file>", description = "record a flight recording of the run, with render and network events, to <file>")
+    Path jfr;
+
+    static {
+        subcommands.put("auth", AuthCommand.class);
+        subcommands.put("draft", DraftCommand.class);
+        subcommands.put("config", ConfigCommand.class);
+        subcommands.put("daemon", DaemonCommand.class);
+        subcommands.put("index", IndexCommand.class);
+    }
 
     public static void main(String[] args) {
-        int exitCode = new CommandLine(new Fastype()).execute(args);
+        startupNanos.set(ProcessHandle.current().info().startInstant()
+                .map(start -> Duration.between(start, Instant.now()).toNanos())
+                .orElse(0L));
+
+        if (DaemonClient.canForward(args)) {
+            Integer exitCode = DaemonClient.forward(args);
+            if (exitCode != null) {
+                System.exit(exitCode);
+            }
+        }
+
+        int exitCode = commandLine(args).execute(args);
         System.exit(exitCode);
     }
 
+    /**
+     * Builds command line for `args` with only the subcommand it runs, or every subcommand for usage help.
+     */
+    public static CommandLine commandLine(String[] args) {
+        CommandLine commandLine = new CommandLine(new Fastype());
+
+        String name = Arrays.stream(args)
+                .filter(subcommands::containsKey)
+                .findFirst()
+                .orElse(null);
+
+        if (name != null) {
+            commandLine.addSubcommand(name, subcommands.get(name));
+        } else {
+            subcommands.forEach(commandLine::addSubcommand);
+        }
+
+        commandLine.setExecutionStrategy(Fastype::execute);
+
+        return commandLine;
+    }
+
+    private static int execute(CommandLine.ParseResult parseResult) {
+        Metrics.reset();
+        long startup = startupNanos.getAndSet(0);
+        if (startup > 0) {
+            Metrics.timer("jvm.start").record(startup);
+        }
+
+        CommandLine commandLine = parseResult.commandSpec().commandLine();
+        Fastype fastype = commandLine.getCommand();
+
+        Recording recording = null;
+        if (fastype.jfr != null) {
+            try {
+                recording = JfrEvents.start(fastype.jfr.toAbsolutePath());
+            } catch (IOException | IllegalStateException e) {
+                commandLine.getErr().println("failed to start flight recording: " + e.getMessage());
+            }
+        }
+
+        int exitCode;
+        try {
+            exitCode = new CommandLine.RunLast().execute(parseResult);
+        } finally {
+            // stopping writes the recording to its destination
+            if (recording != null) {
+                recording.stop();
+                recording.close();
+            }
+        }
+
+        MetricsFormat format = fastype.metrics;
+        if (format != null) {
+            commandLine.getErr().print(Metrics.report(format.name()));
+            commandLine.getErr().flush();
+        }
+
+        return exitCode;
+    }
+
     @Override
     public Integer call() {
         return 0;
@@ -1,17 +1,184 @@
 package fastype;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class FileHelper {
-    public static String readFile(Path path) {
+    // smaller files are read into a byte[] first, which is cheaper than setting up a mapping
+    private static final long mapThreshold = 1024 * 1024;
+
+    // directory relative paths given by user are resolved against, which differs from ours when run by a daemon
+    private static volatile Path workingDirectory;
+
+    public static void setWorkingDirectory(Path directory) {
+        workingDirectory = directory;
+    }
+
+    public static Path resolve(String path) {
+        Path directory = workingDirectory;
+        return directory != null ? directory.resolve(path) : Paths.get(path);
+    }
+
+    /**
+     * Finds .md files in a directory and its subdirectories, or the files matching a glob if `pattern` is not a
+     * directory, sorted by path.
+     */
+    public static List<Path> findMarkdownFiles(String pattern) throws IOException {
+        Path path = resolve(pattern);
+
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> paths = Files.walk(path)) {
+                return paths
+                        .filter(Files::isRegularFile)
+                        .filter(file -> file.toString().endsWith(".md"))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+        }
+
+        // walk from the longest directory prefix without glob characters
+        Path base = Paths.get(".");
+        Path root = path.getRoot();
+        if (root != null) {
+            base = root;
+        }
+        for (Path segment : path) {
+            if (segment.toString().matches(".*[*?\\[{].*")) {
+                break;
+            }
+            base = base.resolve(segment);
+        }
+
+        if (!Files.isDirectory(base)) {
+            return List.of();
+        }
+
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path.normalize());
+        try (Stream<Path> paths = Files.walk(base)) {
+            return paths
+                    .map(Path::normalize)
+                    .filter(Files::isRegularFile)
+                    .filter(matcher::matches)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Reads `path` as UTF-8 with line breaks normalized to `\n` and no line break at the end, the same as its lines
+     * joined by `\n`.
+     *
+     * The file is decoded in a single pass into one char buffer, straight from a mapping if it's large, and line breaks
+     * are normalized in that buffer before the string copies it. A huge document is then held as the chars and the
+     * string at most, instead of also as bytes, lines and the joined lines.
+     *
+     * @throws IOException if `path` can't be read or is not valid UTF-8
+     */
+    public static String readFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large (" + size + " bytes)");
+            }
+
+            ByteBuffer bytes;
+            if (size >= mapThreshold) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                }
+                bytes.flip();
+            }
+            return decode(bytes);
+        }
+    }
+
+    /**
+     * Reads `in` to the end, e.g. stdin for `--content -`, the same way as {@link #readFile(Path)}.
+     */
+    public static String read(InputStream in) throws IOException {
+        return decode(ByteBuffer.wrap(in.readAllBytes()));
+    }
+
+    private static String decode(ByteBuffer bytes) throws IOException {
+        CharBuffer decoded = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(bytes);
+
+        // `\r\n` and `\r` are rewritten in place, as the array is never shared
+        char[] chars = decoded.array();
+        int end = decoded.arrayOffset() + decoded.limit();
+        int length = decoded.arrayOffset();
+        for (int i = length; i < end; i++) {
+            char c = chars[i];
+            if (c == '\r') {
+                if (i + 1 < end && chars[i + 1] == '\n') {
+                    i++;
+                }
+                c = '\n';
+            }
+            chars[length++] = c;
+        }
+
+        if (length > decoded.arrayOffset() && chars[length - 1] == '\n') {
+            length--;
+        }
+        return new String(chars, decoded.arrayOffset(), length - decoded.arrayOffset());
+    }
+
+    public static String sha256(Path path) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    public static String sha256(String content) {
+        return sha256(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String sha256(byte[] content) {
+        return toHex(newSha256().digest(content));
+    }
+
+    private static MessageDigest newSha256() {
         try {
-            List<String> lines = Files.readAllLines(path);
-            return String.join("\n", lines);
-        } catch (Exception e) {
-            e.printStackTrace();
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = digits[bytes[i] & 0xf];
         }
-        return "";
+        return new String(hex);
     }
 }
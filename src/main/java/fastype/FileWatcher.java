@@ -0,0 +1,121 @@
+package fastype;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a set of files and reports changes once a burst of saves has settled.
+ *
+ * `WatchService` only watches directories, so the parent directory of each file is registered and events
+ * for other files in it are ignored.
+ */
+@Slf4j
+public class FileWatcher implements Closeable {
+    private static final WatchEvent.Kind<?>[] kinds = { ENTRY_CREATE, ENTRY_MODIFY };
+    // polling implementations (e.g. macOS) check every 2s instead of 10s with HIGH sensitivity
+    private static final WatchEvent.Modifier[] modifiers = highSensitivity();
+
+    private final WatchService watchService;
+    private final long debounceMillis;
+    private final Map<Path, WatchKey> directories = new HashMap<>();
+    private Set<Path> files = new HashSet<>();
+
+    public FileWatcher(long debounceMillis) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Replaces the watched files with `files`.
+     */
+    public void watch(Set<Path> files) throws IOException {
+        Set<Path> normalized = new HashSet<>();
+        for (Path file : files) {
+            normalized.add(file.toAbsolutePath().normalize());
+        }
+
+        for (Path file : normalized) {
+            Path dir = file.getParent();
+            if (!directories.containsKey(dir) && Files.isDirectory(dir)) {
+                WatchKey key = dir.register(watchService, kinds, modifiers);
+                directories.put(dir, key);
+            }
+        }
+
+        this.files = normalized;
+    }
+
+    /**
+     * Blocks until a watched file changes and no further change happens for the debounce period.
+     *
+     * @return files which changed during the burst
+     */
+    public Set<Path> awaitChange() throws InterruptedException {
+        Set<Path> changed = new HashSet<>();
+
+        while (changed.isEmpty()) {
+            collect(watchService.take(), changed);
+        }
+
+        WatchKey key;
+        while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+            collect(key, changed);
+        }
+
+        return changed;
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path dir = (Path) key.watchable();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // events were lost, so assume every file changed
+                changed.addAll(files);
+                continue;
+            }
+
+            Path file = dir.resolve((Path) event.context());
+            if (files.contains(file)) {
+                changed.add(file);
+            }
+        }
+
+        if (!key.reset()) {
+            directories.remove(dir);
+        }
+    }
+
+    /**
+     * Looks up `SensitivityWatchEventModifier.HIGH` by name, as it's internal to the JDK and may not exist. Without it
+     * files are watched with the default sensitivity.
+     */
+    private static WatchEvent.Modifier[] highSensitivity() {
+        try {
+            Class<?> type = Class.forName("com.sun.nio.file.SensitivityWatchEventModifier");
+            for (Object constant : type.getEnumConstants()) {
+                if (constant instanceof WatchEvent.Modifier && ((WatchEvent.Modifier) constant).name().equals("HIGH")) {
+                    return new WatchEvent.Modifier[] { (WatchEvent.Modifier) constant };
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            log.debug("watching files with the default sensitivity: {}", e.toString());
+        }
+        return new WatchEvent.Modifier[0];
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -0,0 +1,200 @@
+package fastype;
+
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.Flow;
+
+/**
+ * `application/x-www-form-urlencoded` body which is encoded while `HttpClient` reads it.
+ *
+ * Encodes exactly like `URLEncoder.encode(value, UTF_8)` but never holds the encoded body, which for korean text
+ * is 9 bytes per character, so a 250000 characters post costs a few chunks of `HttpClient` buffers instead of
+ * the encoded string and its copy. The length is counted up front so that the request has a `Content-Length`.
+ */
+public class FormBodyPublisher implements HttpRequest.BodyPublisher {
+    private static final byte[] hex = "0123456789ABCDEF".getBytes();
+
+    // key, value, key, value...
+    private final String[] parts;
+    private final long contentLength;
+
+    public FormBodyPublisher(Map<String, ?> fields) {
+        parts = new String[fields.size() * 2];
+
+        int i = 0;
+        long length = Math.max(0, fields.size() * 2 - 1);
+        for (Map.Entry<String, ?> field : fields.entrySet()) {
+            parts[i] = field.getKey();
+            parts[i + 1] = String.valueOf(field.getValue());
+            length += encodedLength(parts[i]) + encodedLength(parts[i + 1]);
+            i += 2;
+        }
+        contentLength = length;
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        // a new stream per subscription so the body can be sent again, e.g. on a redirect
+        HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(this::open), contentLength)
+                .subscribe(subscriber);
+    }
+
+    /**
+     * Opens a stream of the encoded body.
+     */
+    InputStream open() {
+        return new EncodingStream(parts);
+    }
+
+    private static boolean unreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                c == '.' || c == '-' || c == '*' || c == '_';
+    }
+
+    static long encodedLength(String s) {
+        long length = 0;
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+
+            if (unreserved(c) || c == ' ') {
+                length += 1;
+            } else if (c < 0x80) {
+                length += 3;
+            } else if (c < 0x800) {
+                length += 6;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 12;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates are encoded as `?`
+                length += 3;
+            } else {
+                length += 9;
+            }
+        }
+
+        return length;
+    }
+
+    private static class EncodingStream extends InputStream {
+        private final String[] parts;
+        // a code point is at most 4 bytes in utf-8, so 12 bytes percent encoded
+        private final byte[] pending = new byte[12];
+        private int pendingPos;
+        private int pendingLength;
+        private int part;
+        // -1 until the separator before the part is written
+        private int index = -1;
+
+        EncodingStream(String[] parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public int read() {
+            if (pendingPos == pendingLength && !fill()) {
+                return -1;
+            }
+            return pending[pendingPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            int read = 0;
+
+            while (read < len) {
+                if (pendingPos == pendingLength && !fill()) {
+                    break;
+                }
+
+                int count = Math.min(len - read, pendingLength - pendingPos);
+                System.arraycopy(pending, pendingPos, bytes, off + read, count);
+                pendingPos += count;
+                read += count;
+            }
+
+            return read == 0 && len > 0 ? -1 : read;
+        }
+
+        /**
+         * Encodes the next character (or separator) into `pending`, returns false at the end of the body.
+         */
+        private boolean fill() {
+            pendingPos = 0;
+            pendingLength = 0;
+
+            while (part < parts.length) {
+                String s = parts[part];
+
+                if (index == -1) {
+                    index = 0;
+                    if (part > 0) {
+                        pending[pendingLength++] = (byte) (part % 2 == 1 ? '=' : '&');
+                        return true;
+                    }
+                }
+
+                if (index < s.length()) {
+                    encode(s);
+                    return true;
+                }
+
+                part++;
+                index = -1;
+            }
+
+            return false;
+        }
+
+        private void encode(String s) {
+            char c = s.charAt(index++);
+
+            if (unreserved(c)) {
+                pending[pendingLength++] = (byte) c;
+                return;
+            }
+
+            if (c == ' ') {
+                pending[pendingLength++] = '+';
+                return;
+            }
+
+            int codePoint = c;
+            if (Character.isHighSurrogate(c) && index < s.length() && Character.isLowSurrogate(s.charAt(index))) {
+                codePoint = Character.toCodePoint(c, s.charAt(index++));
+            } else if (Character.isSurrogate(c)) {
+                codePoint = '?';
+            }
+
+            if (codePoint < 0x80) {
+                percent(codePoint);
+            } else if (codePoint < 0x800) {
+                percent(0xc0 | (codePoint >> 6));
+                percent(0x80 | (codePoint & 0x3f));
+            } else if (codePoint < 0x10000) {
+                percent(0xe0 | (codePoint >> 12));
+                percent(0x80 | ((codePoint >> 6) & 0x3f));
+                percent(0x80 | (codePoint & 0x3f));
+            } else {
+                percent(0xf0 | (codePoint >> 18));
+                percent(0x80 | ((codePoint >> 12) & 0x3f));
+                percent(0x80 | ((codePoint >> 6) & 0x3f));
+                percent(0x80 | (codePoint & 0x3f));
+            }
+        }
+
+        private void percent(int b) {
+            pending[pendingLength++] = '%';
+            pending[pendingLength++] = hex[(b >> 4) & 0xf];
+            pending[pendingLength++] = hex[b & 0xf];
+        }
+    }
+}
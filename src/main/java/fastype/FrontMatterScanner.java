@@ -0,0 +1,200 @@
+package fastype;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the front matter of markdown without reading or parsing the rest of it, e.g. to list the titles of thousands
+ * of files.
+ *
+ * Lines are read the same as by the front matter extension of the engine, so the result equals
+ * {@link MarkdownRenderer#collectFrontMatter()}: front matter only starts at the first line which isn't blank, a key
+ * followed by `|` takes the lines after it as one value and an indented `-` line adds a value to the key above it.
+ * Front matter which is never closed takes the whole file, and its last key is then dropped.
+ */
+public class FrontMatterScanner {
+    // the same as `YamlFrontMatterBlockParser`
+    private static final Pattern begin = Pattern.compile("^-{3}(\\s.*)?");
+    private static final Pattern end = Pattern.compile("^(-{3}|\\.{3})(\\s.*)?");
+    private static final Pattern metadata = Pattern.compile("^[ ]{0,3}([A-Za-z0-9_-]+):\\s*(.*)");
+    private static final Pattern metadataList = Pattern.compile("^[ ]+-\\s*(.*)");
+    private static final Pattern metadataLiteral = Pattern.compile("^\\s*(.*)");
+
+    // most front matter is read in one go
+    private static final int bufferSize = 4096;
+
+    /**
+     * Reads the front matter of `file`, which is where reading it ends.
+     *
+     * @throws IOException if `file` can't be read or its front matter is not valid UTF-8
+     */
+    public static Map<String, List<String>> scan(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return scan(new LineReader(in));
+        }
+    }
+
+    public static Map<String, List<String>> scan(String markdown) {
+        try {
+            return scan(new LineReader(new ByteArrayInputStream(markdown.getBytes(StandardCharsets.UTF_8))));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<String, List<String>> scan(LineReader reader) throws IOException {
+        Map<String, List<String>> frontMatter = new LinkedHashMap<>();
+
+        String line = reader.readLine();
+        while (line != null && isBlank(line)) {
+            line = reader.readLine();
+        }
+        if (line == null || !begin.matcher(prepare(line)).matches()) {
+            return frontMatter;
+        }
+
+        String key = null;
+        List<String> values = new ArrayList<>();
+        boolean inLiteral = false;
+
+        while ((line = reader.readLine()) != null) {
+            line = prepare(line);
+            if (end.matcher(line).matches()) {
+                if (key != null) {
+                    frontMatter.put(key, List.copyOf(values));
+                }
+                break;
+            }
+
+            Matcher matcher = metadata.matcher(line);
+            if (matcher.matches()) {
+                if (key != null) {
+                    frontMatter.put(key, List.copyOf(values));
+                }
+
+                inLiteral = false;
+                key = matcher.group(1);
+                values = new ArrayList<>();
+                if ("|".equals(matcher.group(2))) {
+                    inLiteral = true;
+                } else if (!matcher.group(2).isEmpty()) {
+                    values.add(matcher.group(2));
+                }
+            } else if (inLiteral) {
+                matcher = metadataLiteral.matcher(line);
+                if (matcher.matches()) {
+                    if (values.size() == 1) {
+                        values.set(0, values.get(0) + "\n" + matcher.group(1).trim());
+                    } else {
+                        values.add(matcher.group(1).trim());
+                    }
+                }
+            } else {
+                matcher = metadataList.matcher(line);
+                if (matcher.matches()) {
+                    values.add(matcher.group(1));
+                }
+            }
+        }
+        return frontMatter;
+    }
+
+    /**
+     * Reads lines broken at `\n`, `\r\n` and `\r` as the parser does, decoding only the lines which are read so that
+     * what follows the front matter is never decoded.
+     */
+    private static class LineReader {
+        private final InputStream in;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+        private byte[] buffer = new byte[bufferSize];
+        private int start;
+        private int end;
+        private boolean eof;
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        // the next line without its line break, or null at the end
+        String readLine() throws IOException {
+            int i = start;
+            while (true) {
+                while (i < end && buffer[i] != '\n' && buffer[i] != '\r') {
+                    i++;
+                }
+
+                // a `\r` at the end of what was read may be followed by `\n`
+                if (i < end && (buffer[i] == '\n' || i + 1 < end || eof)) {
+                    String line = decode(start, i);
+                    start = buffer[i] == '\r' && i + 1 < end && buffer[i + 1] == '\n' ? i + 2 : i + 1;
+                    return line;
+                }
+                if (i == end && eof) {
+                    if (start == end) {
+                        return null;
+                    }
+                    String line = decode(start, end);
+                    start = end;
+                    return line;
+                }
+
+                i -= start;
+                fill();
+            }
+        }
+
+        // moves what's left to the front and reads more after it, growing the buffer for a line longer than it
+        private void fill() throws IOException {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            if (end == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                eof = true;
+            } else {
+                end += read;
+            }
+        }
+
+        private String decode(int from, int to) throws IOException {
+            return decoder.decode(ByteBuffer.wrap(buffer, from, to - from)).toString();
+        }
+    }
+
+    // the parser sees a line as blank if it's only spaces and tabs
+    private static boolean isBlank(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) != ' ' && line.charAt(i) != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the parser replaces NUL as CommonMark requires
+    private static String prepare(String line) {
+        return line.indexOf('\0') < 0 ? line : line.replace('\0', '\uFFFD');
+    }
+}
@@ -0,0 +1,257 @@
+package fastype;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Content addressed cache of remote images.
+ *
+ * Each image is stored once under `blobs/{sha256}` and the index maps its source url to the blob
+ * along with `ETag`/`Last-Modified` so that a cached image is revalidated with a conditional request
+ * and costs a single 304 round-trip (or nothing, while `Cache-Control: max-age` has not expired).
+ *
+ * The index is shared by every process using the directory, e.g. a daemon and a command run without it, so saving
+ * merges it with what the others saved since it was read.
+ */
+@Slf4j
+public class ImageCache {
+    private static final Path defaultDir = Path.of(System.getProperty("user.home") + "/.config/fastype/cache/images");
+    private static final Pattern maxAgePattern = Pattern.compile("max-age=(\\d+)");
+    private static final ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory());
+    // a file lock is held by the process, so caches of the same process take turns on this first
+    private static final Object saveLock = new Object();
+
+    private final Path blobDir;
+    private final Path indexFile;
+    private final PostypeClient client;
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    // sources stored or revalidated since the index was read, which are saved over what other processes saved
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+
+    public ImageCache(PostypeClient client) {
+        this(defaultDir, client);
+    }
+
+    public ImageCache(Path dir, PostypeClient client) {
+        this.blobDir = dir.resolve("blobs");
+        this.indexFile = dir.resolve("index.yaml");
+        this.client = client;
+        load();
+    }
+
+    /**
+     * Resolves `source` to a cached file, downloading or revalidating it if needed.
+     */
+    public CompletableFuture<Path> fetch(String source) {
+        URI uri = URI.create(source);
+        Entry entry = index.get(source);
+        Path blob = entry != null ? blobDir.resolve(entry.hash) : null;
+
+        if (blob != null && Files.notExists(blob)) {
+            entry = null;
+            blob = null;
+        }
+
+        JfrEvents.ImageDownload event = new JfrEvents.ImageDownload();
+        event.begin();
+
+        if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+            log.debug("image cache hit: {}", source);
+            Metrics.count("imageCache.hit");
+            commit(event, source, "hit", null);
+            return CompletableFuture.completedFuture(blob);
+        }
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(uri)
+                .GET();
+
+        if (entry != null) {
+            if (entry.etag != null) {
+                builder.header("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified != null) {
+                builder.header("If-Modified-Since", entry.lastModified);
+            }
+        }
+
+        Path download;
+        try {
+            Files.createDirectories(blobDir);
+            download = Files.createTempFile(blobDir, "download", ".tmp");
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        Entry cached = entry;
+        Path cachedBlob = blob;
+
+        return client.send(builder.build(), responseInfo -> responseInfo.statusCode() == 200 ?
+                        HttpResponse.BodySubscribers.ofFile(download) :
+                        HttpResponse.BodySubscribers.replacing(download), true)
+                .thenApply(res -> {
+                    try {
+                        if (res.statusCode() == 304 && cached != null) {
+                            Files.deleteIfExists(download);
+                            cached.expiresAt = expiresAt(res);
+                            changed.add(source);
+                            log.debug("image cache revalidated: {}", source);
+                            Metrics.count("imageCache.hit");
+                            Metrics.count("imageCache.revalidated");
+                            return cachedBlob;
+                        }
+
+                        if (res.statusCode() != 200) {
+                            Files.deleteIfExists(download);
+                            throw new IOException("status: " + res.statusCode());
+                        }
+
+                        return store(source, download, res);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .whenComplete((path, e) -> {
+                    if (e != null) {
+                        try {
+                            Files.deleteIfExists(download);
+                        } catch (IOException ignored) {
+                        }
+                    }
+                    commit(event, source, e != null ? "failed" : path == cachedBlob ? "revalidated" : "downloaded",
+                            e != null || path == cachedBlob ? null : path);
+                });
+    }
+
+    private static void commit(JfrEvents.ImageDownload event, String source, String result, Path downloaded) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.url = source;
+            event.result = result;
+            try {
+                event.bytes = downloaded != null ? Files.size(downloaded) : 0;
+            } catch (IOException ignored) {
+            }
+            event.commit();
+        }
+    }
+
+    private Path store(String source, Path download, HttpResponse<Path> res) throws IOException {
+        String hash = FileHelper.sha256(download);
+        Path blob = blobDir.resolve(hash);
+
+        if (Files.exists(blob)) {
+            Files.delete(download);
+        } else {
+            Files.move(download, blob, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        Entry entry = new Entry();
+        entry.hash = hash;
+        entry.etag = res.headers().firstValue("ETag").orElse(null);
+        entry.lastModified = res.headers().firstValue("Last-Modified").orElse(null);
+        entry.expiresAt = expiresAt(res);
+        index.put(source, entry);
+        changed.add(source);
+
+        log.debug("image cache stored: {} -> {}", source, hash);
+        Metrics.count("imageCache.miss");
+        return blob;
+    }
+
+    private static long expiresAt(HttpResponse<?> res) {
+        String cacheControl = res.headers().firstValue("Cache-Control").orElse("");
+
+        if (cacheControl.contains("no-cache") || cacheControl.contains("no-store")) {
+            return 0;
+        }
+
+        Matcher matcher = maxAgePattern.matcher(cacheControl);
+        if (matcher.find()) {
+            return System.currentTimeMillis() + Long.parseLong(matcher.group(1)) * 1000;
+        }
+        return 0;
+    }
+
+    /**
+     * Places a cached file at `target`, hard linking it when possible.
+     */
+    public static void link(Path blob, Path target) throws IOException {
+        if (Files.exists(target)) {
+            return;
+        }
+
+        try {
+            Files.createLink(target, blob);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(blob, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void load() {
+        index.putAll(read());
+    }
+
+    private Map<String, Entry> read() {
+        if (Files.notExists(indexFile)) {
+            return Map.of();
+        }
+
+        try {
+            Map<String, Entry> content = yamlMapper.readValue(indexFile.toFile(), new TypeReference<Map<String, Entry>>() {});
+            return content != null ? content : Map.of();
+        } catch (Exception e) {
+            log.debug("failed to read image cache index, starting empty: {}", e.getMessage());
+            return Map.of();
+        }
+    }
+
+    /**
+     * Writes the index, taking entries other processes saved meanwhile unless this one stored the same source.
+     */
+    public void save() {
+        synchronized (saveLock) {
+            try {
+                Files.createDirectories(indexFile.getParent());
+                try (FileChannel channel = FileChannel.open(indexFile.resolveSibling("index.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                     FileLock lock = channel.lock()) {
+                    read().forEach((source, entry) -> {
+                        if (!changed.contains(source)) {
+                            index.put(source, entry);
+                        }
+                    });
+
+                    Path tmp = Files.createTempFile(indexFile.getParent(), "index", ".tmp");
+                    yamlMapper.writeValue(tmp.toFile(), index);
+                    Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public static class Entry {
+        public String hash;
+        public String etag;
+        public String lastModified;
+        public long expiresAt;
+    }
+}
@@ -0,0 +1,130 @@
+package fastype;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads the images of a post to a folder through {@link ImageCache}, at most `concurrency` at a time.
+ *
+ * An image which fails to download is skipped without failing the others, and each image is named by the first
+ * characters of its hash followed by its name, so the same image is never stored twice.
+ */
+@Slf4j
+public class ImageDownloader {
+    private final ImageCache imageCache;
+    // null unless images are processed before they are saved
+    private final ImageProcessor imageProcessor;
+    private final Semaphore permits;
+
+    public ImageDownloader(ImageCache imageCache, ImageProcessor imageProcessor, int concurrency) {
+        this.imageCache = imageCache;
+        this.imageProcessor = imageProcessor;
+        this.permits = new Semaphore(Math.max(1, concurrency));
+    }
+
+    /**
+     * Downloads `sources` to `folder`, skipping those which are not remote urls.
+     *
+     * @return the number of images which were not downloaded
+     */
+    public long download(Path folder, List<String> sources) throws IOException {
+        Files.createDirectories(folder);
+
+        List<CompletableFuture<Boolean>> downloads = new ArrayList<>();
+        for (String source : sources) {
+            downloads.add(download(folder, source));
+        }
+
+        long failed = downloads.stream()
+                .map(CompletableFuture::join)
+                .filter(downloaded -> !downloaded)
+                .count();
+
+        imageCache.save();
+        log.debug("{} images downloaded, {} failed", downloads.size() - failed, failed);
+        return failed;
+    }
+
+    private CompletableFuture<Boolean> download(Path folder, String source) {
+        URI uri;
+        try {
+            uri = URI.create(source);
+        } catch (IllegalArgumentException e) {
+            log.debug("image {} is not a valid url, skipping...", source);
+            return CompletableFuture.completedFuture(false);
+        }
+
+        if (!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme())) {
+            log.debug("image {} is not a remote url, skipping...", source);
+            return CompletableFuture.completedFuture(false);
+        }
+
+        String[] split = uri.getPath().split("/");
+        String imageName = split.length > 0 ? split[split.length-1] : "image";
+
+        // blocks the caller once `concurrency` downloads are in flight
+        permits.acquireUninterruptibly();
+        long startedAt = System.nanoTime();
+
+        CompletableFuture<Path> fetched;
+        try {
+            fetched = imageCache.fetch(source);
+        } catch (RuntimeException e) {
+            // e.g. a url `HttpRequest` rejects, which fails like any download so that the permit is released
+            fetched = CompletableFuture.failedFuture(e);
+        }
+
+        return fetched
+                .thenCompose(this::process)
+                .handle((blob, e) -> {
+                    permits.release();
+                    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+
+                    if (e != null) {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        log.debug("download failed: {} ({} ms) {}", source, elapsed, cause.getMessage());
+                        return false;
+                    }
+
+                    // cached files are named by content so the same image is never stored twice
+                    Path dir = folder.resolve(blob.getFileName().toString().substring(0, 8) + "_" + withExtensionOf(imageName, blob));
+
+                    try {
+                        ImageCache.link(blob, dir);
+                    } catch (IOException ioException) {
+                        log.debug("failed to copy {} to {}: {}", source, dir, ioException.getMessage());
+                        return false;
+                    }
+
+                    log.debug("download completed: {} ({} ms)", dir, elapsed);
+                    return true;
+                });
+    }
+
+    private CompletableFuture<Path> process(Path image) {
+        return imageProcessor != null ? imageProcessor.process(image) : CompletableFuture.completedFuture(image);
+    }
+
+    /**
+     * Replaces the extension of `name` with the one of `file`, if `file` has one (processed images do, blobs don't).
+     */
+    private static String withExtensionOf(String name, Path file) {
+        String fileName = file.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        if (dot == -1) {
+            return name;
+        }
+
+        int nameDot = name.lastIndexOf('.');
+        return (nameDot > 0 ? name.substring(0, nameDot) : name) + fileName.substring(dot);
+    }
+}
@@ -0,0 +1,201 @@
+package fastype;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Shrinks images to at most `maxWidth` pixels wide and recompresses them, so drafts ship a fraction of the bytes.
+ *
+ * Opaque images are written as JPEG of `quality`, images with transparency as PNG as JPEG has no alpha channel.
+ * Results are cached by sha256 of the source along with the settings, and an image which would not get smaller
+ * (or which `ImageIO` can't decode, or a GIF as it may be animated) is used as it is.
+ */
+@Slf4j
+public class ImageProcessor {
+    private static final Path defaultDir = Path.of(System.getProperty("user.home") + "/.config/fastype/cache/processed");
+
+    static {
+        // no window is ever shown, and on macOS this keeps an icon from popping up in the dock
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        ImageIO.setUseCache(false);
+    }
+
+    // decoding and scaling are cpu bound, so they don't share the common pool with io callbacks
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private final Path dir;
+    private final int maxWidth;
+    private final float quality;
+
+    public ImageProcessor(int maxWidth, float quality) {
+        this(defaultDir, maxWidth, quality);
+    }
+
+    public ImageProcessor(Path dir, int maxWidth, float quality) {
+        this.dir = dir;
+        this.maxWidth = maxWidth;
+        this.quality = Math.max(0, Math.min(1, quality));
+    }
+
+    /**
+     * Completes with the processed image, or `source` itself if processing doesn't make it smaller.
+     */
+    public CompletableFuture<Path> process(Path source) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return processNow(source);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, pool);
+    }
+
+    Path processNow(Path source) throws IOException {
+        String key = FileHelper.sha256(FileHelper.sha256(source) + "|" + maxWidth + "|" + quality);
+
+        for (String extension : new String[] { "jpg", "png" }) {
+            Path cached = dir.resolve(key + "." + extension);
+            if (Files.exists(cached)) {
+                Metrics.count("imageProcessor.hit");
+                return cached;
+            }
+        }
+
+        // a skipped image is remembered too, so it's not decoded on every save
+        if (Files.exists(dir.resolve(key + ".skip"))) {
+            Metrics.count("imageProcessor.hit");
+            return source;
+        }
+        Metrics.count("imageProcessor.miss");
+
+        long startedAt = System.nanoTime();
+        BufferedImage image = read(source);
+
+        Path processed = image != null ? write(scale(image), key) : null;
+
+        Files.createDirectories(dir);
+        if (processed == null || Files.size(processed) >= Files.size(source)) {
+            if (processed != null) {
+                Files.delete(processed);
+            }
+            Files.write(dir.resolve(key + ".skip"), new byte[0]);
+            log.debug("image not processed: {}", source);
+            return source;
+        }
+
+        log.debug("image processed: {} ({} -> {} bytes, {} ms)", source, Files.size(source), Files.size(processed),
+                (System.nanoTime() - startedAt) / 1_000_000);
+        Metrics.timer("image.process").recordSince(startedAt);
+        Metrics.count("image.bytesSaved", Files.size(source) - Files.size(processed));
+        return processed;
+    }
+
+    /**
+     * Decodes `source`, or returns null if it's not an image `ImageIO` can decode or a GIF which may be animated.
+     * A reader which fails on the image (e.g. a CMYK JPEG, or a truncated file) counts as not being able to decode it.
+     */
+    private static BufferedImage read(Path source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : Collections.emptyIterator();
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                if (reader.getFormatName().equalsIgnoreCase("gif")) {
+                    return null;
+                }
+                reader.setInput(in, true, true);
+                return reader.read(0);
+            } catch (IOException | RuntimeException e) {
+                log.debug("image not decoded: {}: {}", source, e.toString());
+                return null;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean alpha = image.getColorModel().hasAlpha();
+        int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        if (width <= maxWidth && image.getType() == type) {
+            return image;
+        }
+
+        int targetWidth = Math.min(width, maxWidth);
+        int targetHeight = Math.max(1, (int) Math.round((double) height * targetWidth / width));
+
+        // halving step by step keeps bilinear scaling from dropping pixels when shrinking by more than 2x
+        BufferedImage scaled = image;
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = width == targetWidth ? targetHeight : Math.max(targetHeight, height / 2);
+
+            BufferedImage next = new BufferedImage(width, height, type);
+            Graphics2D graphics = next.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(scaled, 0, 0, width, height, null);
+            graphics.dispose();
+            scaled = next;
+        } while (width != targetWidth);
+
+        return scaled;
+    }
+
+    private Path write(BufferedImage image, String key) throws IOException {
+        Files.createDirectories(dir);
+        boolean alpha = image.getColorModel().hasAlpha();
+        Path tmp = Files.createTempFile(dir, key, ".tmp");
+
+        try {
+            if (alpha) {
+                ImageIO.write(image, "png", tmp.toFile());
+            } else {
+                ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+
+                try (ImageOutputStream out = ImageIO.createImageOutputStream(tmp.toFile())) {
+                    writer.setOutput(out);
+                    writer.write(null, new IIOImage(image, null, null), param);
+                } finally {
+                    writer.dispose();
+                }
+            }
+
+            Path processed = dir.resolve(key + (alpha ? ".png" : ".jpg"));
+            Files.move(tmp, processed, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return processed;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
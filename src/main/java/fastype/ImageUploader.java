@@ -0,0 +1,202 @@
+package fastype;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Uploads local images to Postype, each distinct image only once.
+ *
+ * Images are identified by sha256 of their content and the url each was uploaded to is kept in `uploads.yaml`,
+ * so the same image referenced by several posts (or saved again) is never uploaded twice. Uploads of the same
+ * image requested at the same time share a single request.
+ */
+@Slf4j
+public class ImageUploader {
+    private static final Path defaultFile = Path.of(System.getProperty("user.home") + "/.config/fastype/uploads.yaml");
+    private static final ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory());
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
+
+    private final Path indexFile;
+    private final PostypeClient client;
+    private final URI endpoint;
+    private final String token;
+    // sha256 of image -> url
+    private final Map<String, String> uploaded = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    public ImageUploader(PostypeClient client) {
+        this(defaultFile, client, URI.create(Config.imageUploadUrl()), Config.token());
+    }
+
+    ImageUploader(Path indexFile, PostypeClient client, URI endpoint, String token) {
+        this.indexFile = indexFile;
+        this.client = client;
+        this.endpoint = endpoint;
+        this.token = token;
+        load();
+    }
+
+    /**
+     * Completes with the url `file` is (or was already) uploaded to.
+     */
+    public CompletableFuture<String> upload(Path file) {
+        String hash;
+        try {
+            hash = FileHelper.sha256(file);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        String url = uploaded.get(hash);
+        if (url != null) {
+            log.debug("image already uploaded: {} -> {}", file, url);
+            Metrics.count("imageUploader.hit");
+            return CompletableFuture.completedFuture(url);
+        }
+
+        CompletableFuture<String> upload = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(hash, upload);
+        if (existing != null) {
+            Metrics.count("imageUploader.hit");
+            return existing;
+        }
+        Metrics.count("imageUploader.miss");
+
+        send(file).whenComplete((sentUrl, e) -> {
+            if (sentUrl != null) {
+                uploaded.put(hash, sentUrl);
+            }
+            inFlight.remove(hash);
+
+            if (e != null) {
+                upload.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                upload.complete(sentUrl);
+            }
+        });
+        return upload;
+    }
+
+    private CompletableFuture<String> send(Path file) {
+        if (token == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("`token` is not set in config! please execute `auth` command first."));
+        }
+
+        String boundary = "fastype" + UUID.randomUUID().toString().replace("-", "");
+        String contentType;
+        long size;
+        try {
+            contentType = Files.probeContentType(file);
+            size = Files.size(file);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        byte[] head = ("--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"" + file.getFileName().toString().replace("\"", "") + "\"\r\n" +
+                "Content-Type: " + (contentType != null ? contentType : "application/octet-stream") + "\r\n\r\n")
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+
+        // the image is streamed from disk rather than read into memory
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(() -> {
+            try {
+                InputStream image = Files.newInputStream(file);
+                return new SequenceInputStream(new SequenceInputStream(new ByteArrayInputStream(head), image), new ByteArrayInputStream(tail));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }), head.length + size + tail.length);
+
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(endpoint)
+                .POST(body)
+                .header("Cookie", "PSE1=" + token)
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .build();
+
+        long startedAt = System.nanoTime();
+
+        // uploading again only leaves an unused copy, so a lost response may be retried
+        return Metrics.time("postype.uploadImage", client.scheduler().submit(() -> client.send(req, HttpResponse.BodyHandlers.ofString(), false), true))
+                .thenApply(res -> {
+                    if (res.statusCode() != 200) {
+                        throw new IllegalStateException("failed to upload " + file + " status: " + res.statusCode());
+                    }
+
+                    String url = parseUrl(res.body());
+                    if (url == null) {
+                        throw new IllegalStateException("failed to upload " + file + " no url in response");
+                    }
+
+                    log.debug("image uploaded: {} -> {} ({} ms)", file, url, (System.nanoTime() - startedAt) / 1_000_000);
+                    return url;
+                });
+    }
+
+    /**
+     * Finds the url of the uploaded image in the response, the first `url` (or `src`) at any depth.
+     */
+    static String parseUrl(String body) {
+        try {
+            JsonNode json = jsonMapper.readTree(body);
+            if (json == null) {
+                return null;
+            }
+            JsonNode url = json.findValue("url");
+            if (url == null || !url.isTextual()) {
+                url = json.findValue("src");
+            }
+            return url != null && url.isTextual() ? url.asText() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void load() {
+        if (Files.notExists(indexFile)) {
+            return;
+        }
+
+        try {
+            Map<String, String> content = yamlMapper.readValue(indexFile.toFile(), new TypeReference<Map<String, String>>() {});
+            if (content != null) {
+                uploaded.putAll(content);
+            }
+        } catch (Exception e) {
+            log.debug("failed to read uploaded images, starting empty: {}", e.getMessage());
+        }
+    }
+
+    public synchronized void save() {
+        try {
+            Files.createDirectories(indexFile.getParent());
+            Path tmp = Files.createTempFile(indexFile.getParent(), "uploads", ".tmp");
+            yamlMapper.writeValue(tmp.toFile(), uploaded);
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
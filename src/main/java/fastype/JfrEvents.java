@@ -0,0 +1,135 @@
+package fastype;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import org.commonmark.node.Node;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+/**
+ * Flight recorder events of the hot paths, to line them up with GC and allocation data in one recording.
+ *
+ * Events cost a check of a flag unless a recording is running (`--jfr` or `-XX:StartFlightRecording`), and fields
+ * which take work to compute, like node counts, are only computed when the event is going to be committed.
+ */
+public class JfrEvents {
+
+    /**
+     * Starts a recording with the `profile` settings plus every fastype event, which is written to `file` on stop.
+     */
+    public static Recording start(Path file) throws IOException {
+        Recording recording;
+        try {
+            recording = new Recording(Configuration.getConfiguration("profile"));
+        } catch (ParseException e) {
+            throw new IOException(e);
+        }
+
+        recording.setName("fastype");
+        recording.setDestination(file);
+        for (Class<? extends Event> event : new Class[] { Parse.class, Render.class, Http.class, ImageDownload.class }) {
+            recording.enable(event).withoutThreshold();
+        }
+        recording.start();
+        return recording;
+    }
+
+    static int countNodes(Node document) {
+        int count = 0;
+        Node node = document;
+
+        // pre-order walk without recursion or a visitor
+        while (node != null) {
+            count++;
+            if (node.getFirstChild() != null) {
+                node = node.getFirstChild();
+                continue;
+            }
+            while (node != null && node != document && node.getNext() == null) {
+                node = node.getParent();
+            }
+            node = node == null || node == document ? null : node.getNext();
+        }
+        return count;
+    }
+
+    @Name("fastype.Parse")
+    @Label("Markdown Parse")
+    @Category({ "Fastype", "Markdown" })
+    @StackTrace(false)
+    public static class Parse extends Event {
+        @Label("Characters")
+        public int characters;
+
+        @Label("Nodes")
+        public int nodes;
+    }
+
+    @Name("fastype.Render")
+    @Label("Markdown Render")
+    @Category({ "Fastype", "Markdown" })
+    @StackTrace(false)
+    public static class Render extends Event {
+        @Label("Nodes")
+        public int nodes;
+
+        @Label("Html Characters")
+        public int htmlCharacters;
+
+        @Label("Images")
+        public int images;
+    }
+
+    @Name("fastype.Http")
+    @Label("HTTP Request")
+    @Description("A request to Postype or an image host, each redirect is an event of its own")
+    @Category({ "Fastype", "Network" })
+    @StackTrace(false)
+    public static class Http extends Event {
+        @Label("Method")
+        public String method;
+
+        @Label("URI")
+        public String uri;
+
+        @Label("Status")
+        public int status;
+
+        @Label("Bytes Sent")
+        @DataAmount
+        public long bytesSent;
+
+        @Label("Bytes Received")
+        @DataAmount
+        public long bytesReceived;
+
+        @Label("Error")
+        public String error;
+    }
+
+    @Name("fastype.ImageDownload")
+    @Label("Image Download")
+    @Category({ "Fastype", "Network" })
+    @StackTrace(false)
+    public static class ImageDownload extends Event {
+        @Label("URL")
+        public String url;
+
+        @Label("Bytes Downloaded")
+        @DataAmount
+        public long bytes;
+
+        @Label("Result")
+        @Description("hit, revalidated, downloaded or failed")
+        public String result;
+    }
+}
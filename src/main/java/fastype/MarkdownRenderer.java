@@ -1,238 +1,207 @@
 package fastype;
 
 import lombok.extern.slf4j.Slf4j;
-import org.commonmark.Extension;
-import org.commonmark.ext.front.matter.YamlFrontMatterExtension;
-import org.commonmark.ext.front.matter.YamlFrontMatterVisitor;
-import org.commonmark.ext.gfm.tables.TablesExtension;
 import org.commonmark.node.*;
-import org.commonmark.parser.Parser;
-import org.commonmark.renderer.NodeRenderer;
-import org.commonmark.renderer.html.*;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 @Slf4j
 public class MarkdownRenderer implements PostypeRenderer {
-    final List<Extension> extensions = List.of(
-            TablesExtension.create(),
-            YamlFrontMatterExtension.create()
-    );
+    final PostypeMarkdownEngine engine;
 
+    // null if rendered incrementally or in parallel, then `blocks` are parsed instead
     Node document;
-    Parser parser;
 
     String markdown;
-    List<String> images = new ArrayList<>();
+
+    private final BlockCache blockCache;
+    private final ForkJoinPool pool;
+    final List<BlockCache.Block> blocks;
+
+    private volatile RenderResult result;
 
     public MarkdownRenderer(String markdown) {
-        this.init(markdown);
+        this(markdown, PostypeMarkdownEngine.getDefault());
     }
 
-    public MarkdownRenderer(Path markdownFile) {
-        this.init(FileHelper.readFile(markdownFile));
+    public MarkdownRenderer(Path markdownFile) throws IOException {
+        this(FileHelper.readFile(markdownFile));
     }
 
-    private void init(String markdown) {
-        parser = Parser
-                .builder()
-                .extensions(extensions)
-                .build();
-        this.markdown = markdown;
-        this.document = parser.parse(markdown);
+    public MarkdownRenderer(String markdown, PostypeMarkdownEngine engine) {
+        this(markdown, engine, null, null);
     }
 
-    @Override
-    public String render() {
-        HtmlRenderer renderer = HtmlRenderer.builder()
-                .extensions(extensions)
-                .nodeRendererFactory(FencedCodeBlackRenderer::new)
-                .nodeRendererFactory(CodeBlockRenderer::new)
-                .attributeProviderFactory(attributeProviderContext -> new BlockQuoteAttributeProvider())
-                .attributeProviderFactory(attributeProviderContext -> new LinkAttributeProvider())
-                .build();
-
-        document.accept(new AbstractVisitor() {
-            public void visit(Heading heading) {
-                heading.setLevel(heading.getLevel() + 2);
-                visitChildren(heading);
-            }
-        });
-
-        return renderer.render(document);
+    /**
+     * Renders incrementally: only the top-level blocks which `blockCache` hasn't rendered before are parsed and
+     * rendered, e.g. when a document being edited is rendered on every save.
+     */
+    public MarkdownRenderer(String markdown, BlockCache blockCache) {
+        this(markdown, blockCache.engine(), blockCache, null);
     }
 
-    @Override
-    public List<String> collectImages() {
-        document.accept(new AbstractVisitor() {
-            public void visit(Image image) {
-                images.add(image.getDestination());
-            }
-        });
-        return images;
+    /**
+     * Parses and renders on `pool`: the markdown is split into about 4 runs of top-level blocks per thread, which are
+     * parsed and rendered at the same time and joined to the same result as rendering on one thread.
+     *
+     * Only worth it for very long documents, e.g. a whole book chapter. Image sources passed to
+     * {@link #renderResult(Function)} are then called from the threads of `pool`.
+     */
+    public MarkdownRenderer(String markdown, ForkJoinPool pool) {
+        this(markdown, PostypeMarkdownEngine.getDefault(), null, pool);
     }
 
-    @Override
-    public Map<String, List<String>> collectFrontMatter() {
-        YamlFrontMatterVisitor visitor = new YamlFrontMatterVisitor();
-        document.accept(visitor);
-        return visitor.getData();
+    private MarkdownRenderer(String markdown, PostypeMarkdownEngine engine, BlockCache blockCache, ForkJoinPool pool) {
+        this.engine = engine;
+        this.markdown = markdown;
+        this.blockCache = blockCache;
+        this.pool = pool;
+
+        JfrEvents.Parse event = new JfrEvents.Parse();
+        event.begin();
+        if (blockCache != null) {
+            this.blocks = Metrics.time("markdown.parse", () -> blockCache.blocks(markdown));
+        } else if (pool != null) {
+            this.blocks = Metrics.time("markdown.parse", () -> parseRuns(markdown));
+        } else {
+            this.blocks = null;
+            this.document = Metrics.time("markdown.parse", () -> engine.parse(markdown));
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.characters = markdown.length();
+            event.nodes = countNodes();
+            event.commit();
+        }
     }
 
-    private static class BlockQuoteAttributeProvider implements AttributeProvider {
-        @Override
-        public void setAttributes(Node node, String tagName, Map<String, String> attributes) {
-            if (node instanceof BlockQuote) {
-                attributes.put("class", "blockquote-type2");
-            }
+    @Override
+    public RenderResult renderResult() {
+        // rendering doesn't touch `document`, so racing threads at worst render it twice
+        RenderResult rendered = result;
+        if (rendered == null) {
+            rendered = renderResult(Function.identity());
+            result = rendered;
         }
+        return rendered;
     }
 
-    private static class LinkAttributeProvider implements AttributeProvider {
-        @Override
-        public void setAttributes(Node node, String tagName, Map<String, String> attributes) {
-            if (node instanceof Link) {
-                attributes.put("rel", "nofollow noopener noreferrer");
-                attributes.put("target", "_blank");
-            }
+    /**
+     * Renders with `src` of images replaced by `imageSources`, e.g. local images by their uploaded url.
+     */
+    public RenderResult renderResult(Function<String, String> imageSources) {
+        if (blockCache != null) {
+            return render(() -> blockCache.render(blocks, imageSources));
         }
+        if (pool != null) {
+            return render(() -> renderRuns(imageSources));
+        }
+        return render(() -> engine.render(document, imageSources));
     }
 
-    private static class CodeBlockRenderer implements NodeRenderer {
-
-        private final HtmlWriter html;
+    private List<BlockCache.Block> parseRuns(String markdown) {
+        List<String> runs = BlockSplitter.split(markdown, markdown.length() / (pool.getParallelism() * 4));
 
-        CodeBlockRenderer(HtmlNodeRendererContext context) {
-            this.html = context.getWriter();
+        List<ForkJoinTask<Node>> tasks = new ArrayList<>(runs.size());
+        for (String run : runs) {
+            tasks.add(pool.submit(() -> engine.parse(run)));
         }
 
-        @Override
-        public Set<Class<? extends Node>> getNodeTypes() {
-            return Collections.singleton(Code.class);
+        List<BlockCache.Block> parsed = new ArrayList<>(runs.size());
+        for (int i = 0; i < runs.size(); i++) {
+            parsed.add(new BlockCache.Block(runs.get(i), null, tasks.get(i).join()));
         }
+        return parsed;
+    }
 
-        @Override
-        public void render(Node node) {
-            Code code = (Code) node;
-            html.tag("span", getSpanAttrs());
-            html.tag("em");
-            html.text(code.getLiteral());
-            html.tag("/em");
-            html.tag("/span");
+    private RenderResult renderRuns(Function<String, String> imageSources) {
+        List<ForkJoinTask<RenderResult>> tasks = new ArrayList<>(blocks.size());
+        for (BlockCache.Block block : blocks) {
+            tasks.add(pool.submit(() -> engine.renderFragment(block.document, imageSources)));
         }
 
-        private Map<String, String> getSpanAttrs() {
-            return Map.of(
-                "style", "color: rgb(112, 112, 112);"
-            );
+        List<RenderResult> fragments = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<RenderResult> task : tasks) {
+            fragments.add(task.join());
         }
+        return RenderResult.concat(fragments);
     }
 
-    private static class FencedCodeBlackRenderer implements NodeRenderer {
-
-        private final HtmlWriter html;
+    // nodes parsed for this render, which are only those of changed blocks if rendered incrementally
+    private int countNodes() {
+        if (blocks == null) {
+            return JfrEvents.countNodes(document);
+        }
 
-        FencedCodeBlackRenderer(HtmlNodeRendererContext context) {
-            this.html = context.getWriter();
+        int nodes = 0;
+        for (BlockCache.Block block : blocks) {
+            if (block.document != null) {
+                nodes += JfrEvents.countNodes(block.document);
+            }
         }
+        return nodes;
+    }
 
-        @Override
-        public Set<Class<? extends Node>> getNodeTypes() {
-            return Collections.singleton(FencedCodeBlock.class);
+    private RenderResult render(Supplier<RenderResult> renderer) {
+        JfrEvents.Render event = new JfrEvents.Render();
+        event.begin();
+        RenderResult rendered = Metrics.time("markdown.render", renderer);
+        event.end();
+        if (event.shouldCommit()) {
+            event.nodes = countNodes();
+            event.htmlCharacters = rendered.getHtml().length();
+            event.images = rendered.getImages().size();
+            event.commit();
         }
+        return rendered;
+    }
 
-        @Override
-        public void render(Node node) {
-            FencedCodeBlock codeBlock = (FencedCodeBlock) node;
-            String codeType = toPostypeCodeType(codeBlock.getInfo());
-            String prefix = "<div class=\"element-editor-container code\" contenteditable=\"false\"><pre data-type=\"" + codeType + "\">";
-            String postfix = "</pre></div>";
-            html.raw(prefix);
-            html.text(codeBlock.getLiteral());
-            html.raw(postfix);
+    /**
+     * Destinations of every image in document order, found without rendering.
+     */
+    public List<String> imageDestinations() {
+        List<String> destinations = new ArrayList<>();
+        AbstractVisitor visitor = new AbstractVisitor() {
+            @Override
+            public void visit(Image image) {
+                destinations.add(image.getDestination());
+                visitChildren(image);
+            }
+        };
+
+        if (blocks == null) {
+            document.accept(visitor);
+            return destinations;
         }
 
-        private String toPostypeCodeType(String lang) {
-            switch (lang) {
-                case "c":
-                    return "text/x-csrc";
-                case "csharp":
-                case "c#":
-                    return "text/x-csharp";
-                case "cpp":
-                case "c++":
-                    return "text/x-c++src";
-                case "coffee":
-                case "coffeescript":
-                    return "text/coffeescript";
-                case "Dockerfile":
-                    return "text/x-dockerfile";
-                case "dart":
-                    return "application/dart";
-                case "css":
-                    return "text/css";
-                case "java":
-                    return "text/x-java";
-                case "kt":
-                case "kotlin":
-                    return "text/x-kotlin";
-                case "json":
-                    return "application/json";
-                case "html":
-                    return "text/html";
-                case "md":
-                case "markdown":
-                    return "text/x-markdown";
-                case "hs":
-                case "haskell":
-                    return "text/x-haskell";
-                case "objc":
-                case "objective-c":
-                    return "text/x-objectivec";
-                case "js":
-                case "javascript":
-                    return "text/javascript";
-                case "ts":
-                case "typescript":
-                    return "text/typescript";
-                case "go":
-                    return "text/x-go";
-                case "php":
-                    return "application/x-httpd-php";
-                case "py":
-                case "python":
-                    return "text/x-python";
-                case "ps1":
-                case "psm1":
-                case "powershell":
-                    return "application/x-powershell";
-                case "pl":
-                case "perl":
-                    return "text/x-perl";
-                case "sc":
-                case "scala":
-                    return "text/x-scala";
-                case "sass":
-                    return "text/x-sass";
-                case "r":
-                    return "text/x-rsrc";
-                case "rb":
-                case "ruby":
-                    return "text/x-ruby";
-                case "sh":
-                    return "text/x-sh";
-                case "vue":
-                    return "text/x-vue";
-                case "swift":
-                    return "text/x-swift";
-                case "sql":
-                    return "text/x-sql";
-                case "xml":
-                    return "application/xml";
-                default:
-                    return "text/plain";
+        for (BlockCache.Block block : blocks) {
+            if (block.document != null) {
+                block.document.accept(visitor);
+            } else {
+                destinations.addAll(block.fragment.result.getImages());
             }
         }
+        return destinations;
+    }
+
+    @Override
+    public String render() {
+        return renderResult().getHtml();
+    }
+
+    @Override
+    public List<String> collectImages() {
+        return renderResult().getImages();
+    }
+
+    @Override
+    public Map<String, List<String>> collectFrontMatter() {
+        return renderResult().getFrontMatter();
     }
 }
@@ -0,0 +1,200 @@
+package fastype;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Timers and counters of the current run, reported by `--metrics`.
+ *
+ * Recording is a few atomic adds, so it's always on and only the report is optional. Timers keep a log-linear
+ * histogram (8 buckets per power of two, so percentiles are within ~9%) instead of every sample.
+ *
+ * Counters named `{name}.hit` and `{name}.miss` are reported as the hit rate of cache `{name}`.
+ */
+public class Metrics {
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    public static void count(String name) {
+        count(name, 1);
+    }
+
+    public static void count(String name, long amount) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(amount);
+    }
+
+    public static <T> T time(String name, Supplier<T> supplier) {
+        long startedAt = System.nanoTime();
+        try {
+            return supplier.get();
+        } finally {
+            timer(name).recordSince(startedAt);
+        }
+    }
+
+    /**
+     * Records the time until `future` completes, successfully or not.
+     */
+    public static <T> CompletableFuture<T> time(String name, CompletableFuture<T> future) {
+        long startedAt = System.nanoTime();
+        return future.whenComplete((result, e) -> timer(name).recordSince(startedAt));
+    }
+
+    /**
+     * Forgets everything recorded, so that a daemon reports each command on its own.
+     */
+    public static void reset() {
+        timers.clear();
+        counters.clear();
+    }
+
+    public static String report(String format) {
+        Map<String, Object> report = snapshot();
+
+        if (format.equals("json")) {
+            try {
+                return new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(report);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-28s %8s %10s %10s %10s %10s%n", "timer", "count", "p50", "p99", "max", "total"));
+        new TreeMap<>(timers).forEach((name, timer) -> text.append(String.format("%-28s %8d %10s %10s %10s %10s%n",
+                name, timer.count(), millis(timer.percentile(0.5)), millis(timer.percentile(0.99)),
+                millis(timer.max()), millis(timer.total()))));
+
+        text.append(String.format("%n%-28s %8s%n", "counter", "value"));
+        new TreeMap<>(counters).forEach((name, counter) -> text.append(String.format("%-28s %8d%n", name, counter.sum())));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Double> hitRates = (Map<String, Double>) report.get("hitRates");
+        if (!hitRates.isEmpty()) {
+            text.append(String.format("%n%-28s %8s%n", "cache", "hit rate"));
+            hitRates.forEach((name, rate) -> text.append(String.format("%-28s %7.1f%%%n", name, rate * 100)));
+        }
+
+        return text.toString();
+    }
+
+    private static Map<String, Object> snapshot() {
+        Map<String, Object> timerReport = new TreeMap<>();
+        timers.forEach((name, timer) -> {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", timer.count());
+            values.put("p50Millis", timer.percentile(0.5) / 1e6);
+            values.put("p99Millis", timer.percentile(0.99) / 1e6);
+            values.put("maxMillis", timer.max() / 1e6);
+            values.put("totalMillis", timer.total() / 1e6);
+            timerReport.put(name, values);
+        });
+
+        Map<String, Long> counterReport = new TreeMap<>();
+        counters.forEach((name, counter) -> counterReport.put(name, counter.sum()));
+
+        Map<String, Double> hitRates = new TreeMap<>();
+        counterReport.forEach((name, hits) -> {
+            if (name.endsWith(".hit")) {
+                String cache = name.substring(0, name.length() - ".hit".length());
+                long misses = counterReport.getOrDefault(cache + ".miss", 0L);
+                hitRates.put(cache, (double) hits / (hits + misses));
+            } else if (name.endsWith(".miss") && !counterReport.containsKey(name.replaceAll("\\.miss$", ".hit"))) {
+                hitRates.put(name.substring(0, name.length() - ".miss".length()), 0.0);
+            }
+        });
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timers", timerReport);
+        report.put("counters", counterReport);
+        report.put("hitRates", hitRates);
+        return report;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f ms", nanos / 1e6);
+    }
+
+    public static class Timer {
+        private static final int subBuckets = 8;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * subBuckets);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void recordSince(long startedAtNanos) {
+            record(System.nanoTime() - startedAtNanos);
+        }
+
+        public void record(long nanos) {
+            nanos = Math.max(1, nanos);
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        // the power of two below `value`, and which eighth of the way to the next one it's in
+        private static int bucket(long value) {
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = exponent < 3 ? 0 : (int) ((value >> (exponent - 3)) & (subBuckets - 1));
+            return exponent * subBuckets + sub;
+        }
+
+        // middle of the range of values counted by `bucket`
+        private static long value(int bucket) {
+            int exponent = bucket / subBuckets;
+            int sub = bucket % subBuckets;
+            if (exponent < 3) {
+                return 1L << exponent;
+            }
+            long width = 1L << (exponent - 3);
+            return (1L << exponent) + sub * width + width / 2;
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long total() {
+            return total.sum();
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        public long percentile(double percentile) {
+            long count = count();
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(value(i), max());
+                }
+            }
+            return max();
+        }
+    }
+}
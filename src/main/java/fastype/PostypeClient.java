@@ -0,0 +1,256 @@
+package fastype;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Requests to Postype (and image hosts) over a single `HttpClient`.
+ *
+ * `HttpClient` pools connections per instance and fixes its redirect policy at build time, so instead of one
+ * client per policy there is one client which never redirects and redirects are followed here for the requests
+ * which ask for it. Every request then reuses the same keep-alive (or HTTP/2) connection to www.postype.com.
+ *
+ * Requests to Postype go through a {@link RequestScheduler} so that they are paced and retried when throttled.
+ */
+@Slf4j
+public class PostypeClient {
+    public static final String baseUrl = "https://www.postype.com";
+    // maximum length of a post's content
+    public static final int characterLimit = 250000;
+
+    private static final int maxRedirects = 5;
+
+    private final HttpClient client;
+    private final RequestScheduler scheduler;
+
+    PostypeClient(HttpClient client, RequestScheduler scheduler) {
+        this.client = client;
+        this.scheduler = scheduler;
+    }
+
+    private static class Holder {
+        // shared by every command run by the same JVM, so a daemon keeps its connections
+        static final PostypeClient instance = new PostypeClient(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build(), new RequestScheduler(5, 4));
+    }
+
+    public static PostypeClient getDefault() {
+        return Holder.instance;
+    }
+
+    public RequestScheduler scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Sends `request`, following up to 5 redirects if `followRedirects` is set.
+     *
+     * The response of the last request is returned, so `uri()` of it is where the redirects ended.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, HttpResponse.BodyHandler<T> handler, boolean followRedirects) {
+        return send(request, handler, followRedirects ? maxRedirects : 0);
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, HttpResponse.BodyHandler<T> handler, int redirectsLeft) {
+        long bytesSent = request.bodyPublisher()
+                .map(HttpRequest.BodyPublisher::contentLength)
+                .filter(length -> length > 0)
+                .orElse(0L);
+        if (bytesSent > 0) {
+            Metrics.count("http.bytesSent", bytesSent);
+        }
+
+        JfrEvents.Http event = new JfrEvents.Http();
+        event.begin();
+
+        return client.sendAsync(request, handler).whenComplete((res, e) -> {
+            event.end();
+            if (event.shouldCommit()) {
+                event.method = request.method();
+                event.uri = request.uri().toString();
+                event.bytesSent = bytesSent;
+                if (res != null) {
+                    event.status = res.statusCode();
+                    event.bytesReceived = receivedBytes(res);
+                } else {
+                    event.error = (e.getCause() != null ? e.getCause() : e).toString();
+                }
+                event.commit();
+            }
+        }).thenCompose(res -> {
+            Metrics.count("http.bytesReceived", receivedBytes(res));
+
+            HttpRequest redirect = redirectsLeft > 0 ? redirect(request, res) : null;
+
+            if (redirect == null) {
+                return CompletableFuture.completedFuture(res);
+            }
+
+            log.debug("redirected: {} -> {}", request.uri(), redirect.uri());
+            return send(redirect, handler, redirectsLeft - 1);
+        });
+    }
+
+    private static long receivedBytes(HttpResponse<?> res) {
+        OptionalLong contentLength = res.headers().firstValueAsLong("Content-Length");
+        if (contentLength.isPresent()) {
+            return contentLength.getAsLong();
+        }
+
+        try {
+            if (res.body() instanceof String) {
+                return ((String) res.body()).getBytes(StandardCharsets.UTF_8).length;
+            } else if (res.body() instanceof Path) {
+                return Files.size((Path) res.body());
+            }
+        } catch (IOException ignored) {
+        }
+        return 0;
+    }
+
+    /**
+     * Builds the request `res` redirects to, or returns null if it is not a redirect.
+     */
+    private static HttpRequest redirect(HttpRequest request, HttpResponse<?> res) {
+        int status = res.statusCode();
+        if (status != 301 && status != 302 && status != 303 && status != 307 && status != 308) {
+            return null;
+        }
+
+        String location = res.headers().firstValue("Location").orElse(null);
+        if (location == null) {
+            return null;
+        }
+
+        URI uri = request.uri().resolve(location);
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri);
+
+        // same as browsers, only 307 and 308 repeat a POST
+        if (status == 307 || status == 308 || request.method().equals("GET")) {
+            builder.method(request.method(), request.bodyPublisher().orElse(HttpRequest.BodyPublishers.noBody()));
+        } else {
+            builder.GET();
+        }
+
+        // headers such as `Cookie` must not leak to another host
+        if (Objects.equals(uri.getHost(), request.uri().getHost())) {
+            HttpHeaders headers = request.headers();
+            for (Map.Entry<String, List<String>> header : headers.map().entrySet()) {
+                for (String value : header.getValue()) {
+                    builder.header(header.getKey(), value);
+                }
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Creates a new draft in the blog of `blogUrl` and completes with its id, or -1 if config is not set.
+     */
+    public CompletableFuture<Integer> createDraft() {
+        String token = Config.token();
+        if (token == null) {
+            log.debug("`token` is not set in config! please execute `auth` command first.");
+            return CompletableFuture.completedFuture(-1);
+        }
+
+        Integer blogId = Config.blogId();
+        if (blogId == null) {
+            log.debug("`blogUrl` is not set in config!");
+            return CompletableFuture.completedFuture(-1);
+        }
+
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/edit?blog_id=" + blogId))
+                .GET()
+                .header("Cookie", "PSE1=" + token)
+                .build();
+
+        // postype redirects to the editor of the new draft, and a lost response may have created one already
+        return Metrics.time("postype.createDraft", scheduler.submit(() -> send(req, HttpResponse.BodyHandlers.discarding(), true), false)).thenApply(res -> {
+            String[] paths = res.uri().getPath().split("/");
+            return Integer.parseInt(paths[paths.length-1]);
+        });
+    }
+
+    public CompletableFuture<Boolean> draftExists(int draftId) {
+        String blogUrl = Config.blogUrl();
+
+        if (blogUrl == null) {
+            log.debug("`blogUrl` is not set in config!");
+            return CompletableFuture.completedFuture(false);
+        }
+
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/edit/" + draftId))
+                .GET()
+                .build();
+
+        return Metrics.time("postype.draftExists", scheduler.submit(() -> send(req, HttpResponse.BodyHandlers.discarding(), false), true))
+                .thenApply(res -> res.statusCode() != 404);
+    }
+
+    public CompletableFuture<Boolean> savePost(int draftId, String body, String title, String subtitle) {
+        Integer blogId = Config.blogId();
+        String token = Config.token();
+
+        if (blogId == null) {
+            log.debug("`blogUrl` is not set in config!");
+            return CompletableFuture.completedFuture(false);
+        }
+
+        if (token == null) {
+            log.debug("`token` is not set in config! please execute `auth` command first.");
+            return CompletableFuture.completedFuture(false);
+        }
+
+        Map<String, Object> formData = new LinkedHashMap<>();
+        formData.put("characters_limit", String.valueOf(characterLimit));
+        formData.put("post_id", String.valueOf(draftId));
+        formData.put("content", body);
+        formData.put("blog_id", String.valueOf(blogId));
+        formData.put("auto_save", 1);
+        formData.put("default_font", "font-sans-serif");
+        formData.put("default_align", "text-left");
+        formData.put("use_indent", 0);
+        formData.put("use_p_margin", 1);
+        formData.put("title", title);
+        formData.put("sub_title", subtitle);
+
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/api/post/save"))
+                .POST(new FormBodyPublisher(formData))
+                .header("Cookie", "PSE1=" + token)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .build();
+
+        // saving overwrites the draft, so repeating it is harmless
+        return Metrics.time("postype.savePost", scheduler.submit(() -> send(req, HttpResponse.BodyHandlers.ofString(), false), true)).thenApply(res -> {
+            if (res.statusCode() == 200) {
+                log.debug("post saved successfully");
+                return true;
+            }
+
+            log.debug("failed to save post status: {}", res.statusCode());
+            return false;
+        });
+    }
+}
@@ -0,0 +1,539 @@
+package fastype;
+
+import org.commonmark.Extension;
+import org.commonmark.ext.front.matter.YamlFrontMatterBlock;
+import org.commonmark.ext.front.matter.YamlFrontMatterExtension;
+import org.commonmark.ext.front.matter.YamlFrontMatterNode;
+import org.commonmark.ext.gfm.tables.TablesExtension;
+import org.commonmark.node.*;
+import org.commonmark.parser.Parser;
+import org.commonmark.renderer.NodeRenderer;
+import org.commonmark.renderer.html.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Parser and html renderer configured for Postype.
+ *
+ * Both are immutable once built, so a single engine is shared by every document and thread.
+ * Rendering never modifies the document, so a parsed document can be rendered any number of times.
+ */
+public class PostypeMarkdownEngine {
+    private static final List<Extension> extensions = List.of(
+            TablesExtension.create(),
+            YamlFrontMatterExtension.create()
+    );
+
+    private static final PostypeMarkdownEngine defaultEngine = new PostypeMarkdownEngine();
+
+    // node renderers are created by `HtmlRenderer` on every render, this hands them the collector of that render
+    private static final ThreadLocal<Collector> currentCollector = new ThreadLocal<>();
+
+    private final Parser parser;
+    private final HtmlRenderer renderer;
+
+    public PostypeMarkdownEngine() {
+        parser = Parser
+                .builder()
+                .extensions(extensions)
+                .build();
+        renderer = HtmlRenderer.builder()
+                .extensions(extensions)
+                .nodeRendererFactory(FencedCodeBlackRenderer::new)
+                .nodeRendererFactory(context -> new CodeBlockRenderer(context, currentCollector.get()))
+                .nodeRendererFactory(HeadingRenderer::new)
+                .nodeRendererFactory(context -> new TextRenderer(context, currentCollector.get()))
+                .nodeRendererFactory(context -> new FrontMatterRenderer(currentCollector.get()))
+                .nodeRendererFactory(context -> new DocumentRenderer(context, currentCollector.get()))
+                .nodeRendererFactory(BlockQuoteRenderer::new)
+                .nodeRendererFactory(LinkRenderer::new)
+                .attributeProviderFactory(attributeProviderContext -> new ImageAttributeProvider(currentCollector.get()))
+                .build();
+    }
+
+    public static PostypeMarkdownEngine getDefault() {
+        return defaultEngine;
+    }
+
+    /**
+     * Hash of the bytecode of this engine, its node renderers and the commonmark classes it builds on, so that
+     * html cached by {@link RenderCache} is rendered again once any of them changes.
+     */
+    public static String fingerprint() {
+        return Fingerprint.value;
+    }
+
+    private static class Fingerprint {
+        static final String value = compute();
+
+        private static String compute() {
+            List<Class<?>> classes = new ArrayList<>();
+            classes.add(PostypeMarkdownEngine.class);
+            classes.addAll(Arrays.asList(PostypeMarkdownEngine.class.getDeclaredClasses()));
+            classes.add(RenderResult.class);
+            classes.add(Parser.class);
+            classes.add(HtmlRenderer.class);
+            classes.add(CoreHtmlNodeRenderer.class);
+            classes.sort(Comparator.comparing(Class::getName));
+
+            StringBuilder hashes = new StringBuilder();
+            for (Class<?> type : classes) {
+                String resource = type.getName().substring(type.getName().lastIndexOf('.') + 1) + ".class";
+                try (InputStream in = type.getResourceAsStream(resource)) {
+                    hashes.append(type.getName()).append('=')
+                            .append(in != null ? FileHelper.sha256(in.readAllBytes()) : "?")
+                            .append('\n');
+                } catch (IOException e) {
+                    hashes.append(type.getName()).append("=?\n");
+                }
+            }
+            return FileHelper.sha256(hashes.toString());
+        }
+    }
+
+    public Node parse(String markdown) {
+        return parser.parse(markdown);
+    }
+
+    /**
+     * Renders `document` and collects its images, front matter, text stats and where each top-level block starts
+     * in the html in the same traversal.
+     */
+    public RenderResult render(Node document) {
+        return render(document, Function.identity());
+    }
+
+    /**
+     * Renders `document` with `src` of each image replaced by `imageSources` applied to its destination.
+     *
+     * `RenderResult.getImages()` still returns the destinations as written in markdown.
+     */
+    public RenderResult render(Node document, Function<String, String> imageSources) {
+        return render(document, imageSources, false);
+    }
+
+    /**
+     * Renders `document`, a run of top-level blocks of a larger document, so that {@link RenderResult#concat(List)}
+     * can join it to the runs around it.
+     *
+     * The html of a block begins with a line break only if the html before it doesn't end with one, so it's rendered
+     * as if something came before it and {@link RenderResult#hasLeadingLineBreak()} tells whether that line break may
+     * be dropped.
+     */
+    RenderResult renderFragment(Node document, Function<String, String> imageSources) {
+        return render(document, imageSources, true);
+    }
+
+    private RenderResult render(Node document, Function<String, String> imageSources, boolean fragment) {
+        Collector collector = new Collector(imageSources, fragment);
+        currentCollector.set(collector);
+        try {
+            renderer.render(document, collector.output);
+
+            // the placeholder written by `DocumentRenderer` is cut off, and offsets with it
+            int start = fragment ? 1 : 0;
+            return new RenderResult(
+                    collector.output.substring(start),
+                    Collections.unmodifiableList(collector.images),
+                    Collections.unmodifiableMap(collector.frontMatter),
+                    collector.words,
+                    collector.characters,
+                    collector.blockOffsets(start),
+                    Arrays.copyOf(collector.headingLevels, collector.blocks),
+                    fragment && collector.output.length() > 1 && collector.output.charAt(1) == '\n'
+            );
+        } finally {
+            currentCollector.remove();
+        }
+    }
+
+    private static class Collector {
+        // `HtmlWriter` appends straight to this, so its length is the offset of whatever is rendered next
+        final StringBuilder output = new StringBuilder();
+        int[] blockOffsets = new int[64];
+        int[] headingLevels = new int[64];
+        int blocks;
+        final List<String> images = new ArrayList<>();
+        final Map<String, List<String>> frontMatter = new LinkedHashMap<>();
+        final Function<String, String> imageSources;
+        final boolean fragment;
+        int words;
+        int characters;
+        boolean inWord;
+        // block of the last text counted, a word never continues into another block
+        Node textBlock;
+
+        Collector(Function<String, String> imageSources, boolean fragment) {
+            this.imageSources = imageSources;
+            this.fragment = fragment;
+        }
+
+        void addBlock(int offset, int headingLevel) {
+            if (blocks == blockOffsets.length) {
+                blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+                headingLevels = Arrays.copyOf(headingLevels, blocks * 2);
+            }
+            blockOffsets[blocks] = offset;
+            headingLevels[blocks] = headingLevel;
+            blocks++;
+        }
+
+        int[] blockOffsets(int start) {
+            int[] offsets = Arrays.copyOf(blockOffsets, blocks);
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] -= start;
+            }
+            return offsets;
+        }
+
+        void countText(Node node, String literal) {
+            Node block = node.getParent();
+            while (block != null && !(block instanceof Block)) {
+                block = block.getParent();
+            }
+
+            if (block != textBlock || startsWord(node)) {
+                inWord = false;
+            }
+            textBlock = block;
+
+            for (int i = 0; i < literal.length(); ) {
+                int codePoint = literal.codePointAt(i);
+                i += Character.charCount(codePoint);
+                characters++;
+
+                if (Character.isWhitespace(codePoint)) {
+                    inWord = false;
+                } else if (!inWord) {
+                    inWord = true;
+                    words++;
+                }
+            }
+        }
+
+        // text continues a word only if it directly follows other inline content, e.g. `foo*bar*`
+        private static boolean startsWord(Node node) {
+            while (node.getPrevious() == null && node.getParent() != null && !(node.getParent() instanceof Block)) {
+                node = node.getParent();
+            }
+            Node previous = node.getPrevious();
+            return previous == null || previous instanceof SoftLineBreak || previous instanceof HardLineBreak;
+        }
+    }
+
+    /**
+     * Renders the children of the document, recording the html offset and heading level of each of them.
+     */
+    private static class DocumentRenderer implements NodeRenderer {
+
+        private final HtmlNodeRendererContext context;
+        private final Collector collector;
+
+        DocumentRenderer(HtmlNodeRendererContext context, Collector collector) {
+            this.context = context;
+            this.collector = collector;
+        }
+
+        @Override
+        public Set<Class<? extends Node>> getNodeTypes() {
+            return Collections.singleton(Document.class);
+        }
+
+        @Override
+        public void render(Node node) {
+            if (collector.fragment) {
+                // a block which starts with `line()` then writes its line break, as it would after a previous block
+                context.getWriter().raw(" ");
+            }
+
+            Node child = node.getFirstChild();
+            while (child != null) {
+                Node next = child.getNext();
+                collector.addBlock(collector.output.length(), child instanceof Heading ? ((Heading) child).getLevel() : 0);
+                context.render(child);
+                child = next;
+            }
+        }
+    }
+
+    /**
+     * Renders headings two levels lower (`#` becomes `h3`) as Postype uses `h1`/`h2` for the post title.
+     */
+    private static class HeadingRenderer implements NodeRenderer {
+        // by level of the heading
+        private static final String[] openingTags = { null, "<h3>", "<h4>", "<h5>", "<h6>", "<h7>", "<h8>" };
+        private static final String[] closingTags = { null, "</h3>", "</h4>", "</h5>", "</h6>", "</h7>", "</h8>" };
+
+        private final HtmlNodeRendererContext context;
+        private final HtmlWriter html;
+
+        HeadingRenderer(HtmlNodeRendererContext context) {
+            this.context = context;
+            this.html = context.getWriter();
+        }
+
+        @Override
+        public Set<Class<? extends Node>> getNodeTypes() {
+            return Collections.singleton(Heading.class);
+        }
+
+        @Override
+        public void render(Node node) {
+            Heading heading = (Heading) node;
+            html.line();
+            html.raw(openingTags[heading.getLevel()]);
+            Node child = heading.getFirstChild();
+            while (child != null) {
+                Node next = child.getNext();
+                context.render(child);
+                child = next;
+            }
+            html.raw(closingTags[heading.getLevel()]);
+            html.line();
+        }
+    }
+
+    private static class TextRenderer implements NodeRenderer {
+
+        private final HtmlWriter html;
+        private final Collector collector;
+
+        TextRenderer(HtmlNodeRendererContext context, Collector collector) {
+            this.html = context.getWriter();
+            this.collector = collector;
+        }
+
+        @Override
+        public Set<Class<? extends Node>> getNodeTypes() {
+            return Collections.singleton(Text.class);
+        }
+
+        @Override
+        public void render(Node node) {
+            Text text = (Text) node;
+            collector.countText(text, text.getLiteral());
+            html.text(text.getLiteral());
+        }
+    }
+
+    private static class FrontMatterRenderer implements NodeRenderer {
+
+        private final Collector collector;
+
+        FrontMatterRenderer(Collector collector) {
+            this.collector = collector;
+        }
+
+        @Override
+        public Set<Class<? extends Node>> getNodeTypes() {
+            return Collections.singleton(YamlFrontMatterBlock.class);
+        }
+
+        @Override
+        public void render(Node node) {
+            // front matter is collected the same way as `YamlFrontMatterVisitor` but never rendered
+            Node child = node.getFirstChild();
+            while (child != null) {
+                if (child instanceof YamlFrontMatterNode) {
+                    YamlFrontMatterNode frontMatterNode = (YamlFrontMatterNode) child;
+                    collector.frontMatter.put(frontMatterNode.getKey(), List.copyOf(frontMatterNode.getValues()));
+                }
+                child = child.getNext();
+            }
+        }
+    }
+
+    private static class ImageAttributeProvider implements AttributeProvider {
+
+        private final Collector collector;
+
+        ImageAttributeProvider(Collector collector) {
+            this.collector = collector;
+        }
+
+        @Override
+        public void setAttributes(Node node, String tagName, Map<String, String> attributes) {
+            if (node instanceof Image) {
+                String destination = ((Image) node).getDestination();
+                collector.images.add(destination);
+
+                String source = collector.imageSources.apply(destination);
+                if (!source.equals(destination)) {
+                    attributes.put("src", source);
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders block quotes as Postype styles them, writing the same html as the core renderer with the class added.
+     */
+    private static class BlockQuoteRenderer implements NodeRenderer {
+
+        private final HtmlNodeRendererContext context;
+        private final HtmlWriter html;
+
+        BlockQuoteRenderer(HtmlNodeRendererContext context) {
+            this.context = context;
+            this.html = context.getWriter();
+        }
+
+        @Override
+        public Set<Class<? extends Node>> getNodeTypes() {
+            return Collections.singleton(BlockQuote.class);
+        }
+
+        @Override
+        public void render(Node node) {
+            html.line();
+            html.raw("<blockquote class=\"blockquote-type2\">");
+            html.line();
+            Node child = node.getFirstChild();
+            while (child != null) {
+                Node next = child.getNext();
+                context.render(child);
+                child = next;
+            }
+            html.line();
+            html.raw("</blockquote>");
+            html.line();
+        }
+    }
+
+    /**
+     * Renders links to open in a new tab, writing the same html as the core renderer with `rel` and `target` added.
+     */
+    private static class LinkRenderer implements NodeRenderer {
+
+        private final HtmlNodeRendererContext context;
+        private final HtmlWriter html;
+
+        LinkRenderer(HtmlNodeRendererContext context) {
+            this.context = context;
+            this.html = context.getWriter();
+        }
+
+        @Override
+        public Set<Class<? extends Node>> getNodeTypes() {
+            return Collections.singleton(Link.class);
+        }
+
+        @Override
+        public void render(Node node) {
+            Link link = (Link) node;
+            // `text` escapes the same as attribute values, and only allocates if there's something to escape
+            html.raw("<a href=\"");
+            html.text(context.encodeUrl(link.getDestination()));
+            if (link.getTitle() != null) {
+                html.raw("\" title=\"");
+                html.text(link.getTitle());
+            }
+            html.raw("\" rel=\"nofollow noopener noreferrer\" target=\"_blank\">");
+            Node child = link.getFirstChild();
+            while (child != null) {
+                Node next = child.getNext();
+                context.render(child);
+                child = next;
+            }
+            html.raw("</a>");
+        }
+    }
+
+    private static class CodeBlockRenderer implements NodeRenderer {
+
+        private final HtmlWriter html;
+        private final Collector collector;
+
+        CodeBlockRenderer(HtmlNodeRendererContext context, Collector collector) {
+            this.html = context.getWriter();
+            this.collector = collector;
+        }
+
+        @Override
+        public Set<Class<? extends Node>> getNodeTypes() {
+            return Collections.singleton(Code.class);
+        }
+
+        @Override
+        public void render(Node node) {
+            Code code = (Code) node;
+            collector.countText(code, code.getLiteral());
+            html.raw("<span style=\"color: rgb(112, 112, 112);\"><em>");
+            html.text(code.getLiteral());
+            html.raw("</em></span>");
+        }
+    }
+
+    private static class FencedCodeBlackRenderer implements NodeRenderer {
+        private static final String plainPrefix = prefix("text/plain");
+
+        // opening html of a block by its info string, with the mime type Postype's editor highlights it as
+        private static final Map<String, String> prefixes = new HashMap<>();
+
+        static {
+            language("text/x-csrc", "c");
+            language("text/x-csharp", "csharp", "c#");
+            language("text/x-c++src", "cpp", "c++");
+            language("text/coffeescript", "coffee", "coffeescript");
+            language("text/x-dockerfile", "Dockerfile");
+            language("application/dart", "dart");
+            language("text/css", "css");
+            language("text/x-java", "java");
+            language("text/x-kotlin", "kt", "kotlin");
+            language("application/json", "json");
+            language("text/html", "html");
+            language("text/x-markdown", "md", "markdown");
+            language("text/x-haskell", "hs", "haskell");
+            language("text/x-objectivec", "objc", "objective-c");
+            language("text/javascript", "js", "javascript");
+            language("text/typescript", "ts", "typescript");
+            language("text/x-go", "go");
+            language("application/x-httpd-php", "php");
+            language("text/x-python", "py", "python");
+            language("application/x-powershell", "ps1", "psm1", "powershell");
+            language("text/x-perl", "pl", "perl");
+            language("text/x-scala", "sc", "scala");
+            language("text/x-sass", "sass");
+            language("text/x-rsrc", "r");
+            language("text/x-ruby", "rb", "ruby");
+            language("text/x-sh", "sh");
+            language("text/x-vue", "vue");
+            language("text/x-swift", "swift");
+            language("text/x-sql", "sql");
+            language("application/xml", "xml");
+        }
+
+        private final HtmlWriter html;
+
+        FencedCodeBlackRenderer(HtmlNodeRendererContext context) {
+            this.html = context.getWriter();
+        }
+
+        private static void language(String codeType, String... infos) {
+            String prefix = prefix(codeType);
+            for (String info : infos) {
+                prefixes.put(info, prefix);
+            }
+        }
+
+        private static String prefix(String codeType) {
+            return "<div class=\"element-editor-container code\" contenteditable=\"false\"><pre data-type=\"" + codeType + "\">";
+        }
+
+        @Override
+        public Set<Class<? extends Node>> getNodeTypes() {
+            return Collections.singleton(FencedCodeBlock.class);
+        }
+
+        @Override
+        public void render(Node node) {
+            FencedCodeBlock codeBlock = (FencedCodeBlock) node;
+            html.raw(prefixes.getOrDefault(codeBlock.getInfo(), plainPrefix));
+            html.text(codeBlock.getLiteral());
+            html.raw("</pre></div>");
+        }
+    }
+}
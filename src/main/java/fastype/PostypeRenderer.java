@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.Map;
 
 public interface PostypeRenderer {
+    RenderResult renderResult();
     String render();
     List<String> collectImages();
     Map<String, List<String>> collectFrontMatter();
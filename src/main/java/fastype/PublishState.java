@@ -0,0 +1,115 @@
+package fastype;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers what was last saved to each draft so unchanged posts can be skipped.
+ *
+ * Entries are keyed by source file (or by draft id for inline content) and hold the file's size and
+ * modification time along with hashes of the markdown, the front matter and the rendered html, and the size and
+ * modification time of each local image.
+ */
+@Slf4j
+public class PublishState {
+    private static final Path defaultFile = Path.of(System.getProperty("user.home") + "/.config/fastype/state.yaml");
+    private static final ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory());
+
+    private final Path stateFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public PublishState() {
+        this(defaultFile);
+    }
+
+    public PublishState(Path stateFile) {
+        this.stateFile = stateFile;
+        load();
+    }
+
+    public static String key(Integer draftId, Path source) {
+        if (source != null) {
+            return source.toAbsolutePath().normalize().toString();
+        }
+        return "draft:" + draftId;
+    }
+
+    public Entry get(String key) {
+        return entries.get(key);
+    }
+
+    public void put(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    private void load() {
+        if (Files.notExists(stateFile)) {
+            return;
+        }
+
+        try {
+            Map<String, Entry> content = yamlMapper.readValue(stateFile.toFile(), new TypeReference<Map<String, Entry>>() {});
+            if (content != null) {
+                entries.putAll(content);
+            }
+        } catch (Exception e) {
+            log.debug("failed to read publish state, starting empty: {}", e.getMessage());
+        }
+    }
+
+    public synchronized void save() {
+        try {
+            Files.createDirectories(stateFile.getParent());
+            Path tmp = Files.createTempFile(stateFile.getParent(), "state", ".tmp");
+            yamlMapper.writeValue(tmp.toFile(), entries);
+            Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static class Entry {
+        public int draftId;
+        public long size;
+        public long modifiedAt;
+        public String optionsHash;
+        public String markdownHash;
+        public String frontMatterHash;
+        public String htmlHash;
+        // drafts holding the 2nd, 3rd... part of a post too long for a single draft
+        public List<Integer> partIds;
+        // images of the post as written in markdown, so that an unchanged post's images can still be downloaded
+        public List<String> images;
+        // `size:modifiedAt` of each local image by its destination, so that an image replaced in place is uploaded again
+        public Map<String, String> imageStamps;
+
+        /**
+         * Whether `source` still has the size and modification time it had when it was saved.
+         */
+        public boolean sameFile(Path source) throws IOException {
+            return size == Files.size(source) && modifiedAt == Files.getLastModifiedTime(source).toMillis();
+        }
+
+        /**
+         * Whether local images still have the sizes and modification times they had when they were saved.
+         */
+        public boolean sameImages(Map<String, String> imageStamps) {
+            return (this.imageStamps != null ? this.imageStamps : Map.of()).equals(imageStamps);
+        }
+
+        public boolean sameOutput(String frontMatterHash, String htmlHash) {
+            return Objects.equals(this.frontMatterHash, frontMatterHash) && Objects.equals(this.htmlHash, htmlHash);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package fastype;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Rendered documents on disk, so that markdown which was rendered before is neither parsed nor rendered again.
+ *
+ * Entries are keyed by sha256 of the markdown along with {@link PostypeMarkdownEngine#fingerprint()}, and hold the
+ * whole {@link RenderResult} plus the image sources it was rendered with in a length-prefixed binary file which is
+ * memory mapped when large. Files are written to a temp file and moved in place, so other processes sharing the
+ * directory never read a partial entry, and a file which can't be decoded is a miss.
+ *
+ * Reading an entry touches its mtime, and once the directory grows over `maxBytes` the least recently used entries
+ * are deleted by whichever process holds `.lock`.
+ */
+@Slf4j
+public class RenderCache {
+    private static final Path defaultDir = Path.of(System.getProperty("user.home") + "/.config/fastype/cache/render");
+    private static final long defaultMaxBytes = 256L * 1024 * 1024;
+
+    private static final int magic = 0x46545243;
+    private static final int formatVersion = 1;
+    // below this a plain read is cheaper than setting up a mapping
+    private static final int mapThreshold = 64 * 1024;
+
+    private final Path dir;
+    private final String fingerprint;
+    private final long maxBytes;
+
+    // bytes in `dir` as of the last listing plus what this process wrote since, -1 until listed
+    private long size = -1;
+
+    public RenderCache() {
+        this(defaultDir, PostypeMarkdownEngine.fingerprint(), defaultMaxBytes);
+    }
+
+    public RenderCache(Path dir, String fingerprint, long maxBytes) {
+        this.dir = dir;
+        this.fingerprint = fingerprint;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns what `markdownHash` was last rendered to by the same engine, or null.
+     */
+    public Entry get(String markdownHash) {
+        Path file = dir.resolve(key(markdownHash));
+
+        try {
+            Entry entry = read(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            Metrics.count("renderCache.hit");
+            return entry;
+        } catch (NoSuchFileException e) {
+            Metrics.count("renderCache.miss");
+            return null;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            log.debug("render cache entry {} is unreadable, rendering again: {}", file, e.toString());
+            Metrics.count("renderCache.miss");
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Stores `result` of rendering `markdownHash` with `imageSources`, failing silently as the cache is optional.
+     */
+    public void put(String markdownHash, RenderResult result, Map<String, String> imageSources) {
+        try {
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, "render", ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                    write(out, result, imageSources);
+                }
+                Path file = dir.resolve(key(markdownHash));
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                grow(Files.size(file));
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            log.debug("failed to store render cache entry: {}", e.getMessage());
+        }
+    }
+
+    private String key(String markdownHash) {
+        return FileHelper.sha256(fingerprint + "|" + markdownHash);
+    }
+
+    private synchronized void grow(long bytes) throws IOException {
+        if (size < 0) {
+            size = list().stream().mapToLong(file -> file.size).sum();
+        } else {
+            size += bytes;
+        }
+
+        if (size > maxBytes) {
+            trim();
+        }
+    }
+
+    /**
+     * Deletes least recently used entries until the cache is down to 3/4 of `maxBytes`, unless another process is
+     * already doing so.
+     */
+    synchronized void trim() throws IOException {
+        Files.createDirectories(dir);
+        try (FileChannel channel = FileChannel.open(dir.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                return;
+            }
+
+            List<CachedFile> files = list();
+            files.sort(Comparator.comparingLong(file -> file.modifiedAt));
+
+            long total = files.stream().mapToLong(file -> file.size).sum();
+            int deleted = 0;
+            for (CachedFile file : files) {
+                if (total <= maxBytes / 4 * 3) {
+                    break;
+                }
+                try {
+                    Files.deleteIfExists(file.path);
+                    total -= file.size;
+                    deleted++;
+                } catch (IOException e) {
+                    // still mapped by a reader on a platform which doesn't allow that
+                    log.debug("failed to evict {}: {}", file.path, e.getMessage());
+                }
+            }
+
+            size = total;
+            log.debug("render cache trimmed, {} entries evicted", deleted);
+        }
+    }
+
+    private List<CachedFile> list() throws IOException {
+        if (Files.notExists(dir)) {
+            return new ArrayList<>();
+        }
+
+        try (Stream<Path> paths = Files.list(dir)) {
+            List<CachedFile> files = new ArrayList<>();
+            for (Path path : paths.collect(Collectors.toList())) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(".") || name.endsWith(".tmp")) {
+                    continue;
+                }
+                try {
+                    files.add(new CachedFile(path, Files.size(path), Files.getLastModifiedTime(path).toMillis()));
+                } catch (NoSuchFileException ignored) {
+                    // evicted by another process
+                }
+            }
+            return files;
+        }
+    }
+
+    private static Entry read(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length >= mapThreshold) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } else {
+                buffer = ByteBuffer.allocate((int) length);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                }
+                buffer.flip();
+            }
+        }
+
+        if (buffer.getInt() != magic || buffer.getInt() != formatVersion) {
+            throw new IllegalArgumentException("not a render cache entry");
+        }
+
+        String html = readString(buffer);
+
+        int imageCount = buffer.getInt();
+        List<String> images = new ArrayList<>(imageCount);
+        for (int i = 0; i < imageCount; i++) {
+            images.add(readString(buffer));
+        }
+
+        int frontMatterCount = buffer.getInt();
+        Map<String, List<String>> frontMatter = new LinkedHashMap<>();
+        for (int i = 0; i < frontMatterCount; i++) {
+            String key = readString(buffer);
+            int valueCount = buffer.getInt();
+            List<String> values = new ArrayList<>(valueCount);
+            for (int j = 0; j < valueCount; j++) {
+                values.add(readString(buffer));
+            }
+            frontMatter.put(key, values);
+        }
+
+        int wordCount = buffer.getInt();
+        int characterCount = buffer.getInt();
+        int[] blockOffsets = readInts(buffer);
+        int[] headingLevels = readInts(buffer);
+
+        int sourceCount = buffer.getInt();
+        Map<String, String> imageSources = new LinkedHashMap<>();
+        for (int i = 0; i < sourceCount; i++) {
+            imageSources.put(readString(buffer), readString(buffer));
+        }
+
+        RenderResult result = new RenderResult(html, Collections.unmodifiableList(images), Collections.unmodifiableMap(frontMatter),
+                wordCount, characterCount, blockOffsets, headingLevels);
+        return new Entry(result, imageSources);
+    }
+
+    private static void write(DataOutputStream out, RenderResult result, Map<String, String> imageSources) throws IOException {
+        out.writeInt(magic);
+        out.writeInt(formatVersion);
+        writeString(out, result.getHtml());
+
+        out.writeInt(result.getImages().size());
+        for (String image : result.getImages()) {
+            writeString(out, image);
+        }
+
+        out.writeInt(result.getFrontMatter().size());
+        for (Map.Entry<String, List<String>> entry : result.getFrontMatter().entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (String value : entry.getValue()) {
+                writeString(out, value);
+            }
+        }
+
+        out.writeInt(result.getWordCount());
+        out.writeInt(result.getCharacterCount());
+        writeInts(out, result.getBlockOffsets());
+        writeInts(out, result.getHeadingLevels());
+
+        out.writeInt(imageSources.size());
+        for (Map.Entry<String, String> entry : imageSources.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    // `writeUTF` is limited to 64KB, html is not
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining() / Integer.BYTES) {
+            throw new BufferUnderflowException();
+        }
+
+        int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + length * Integer.BYTES);
+        return values;
+    }
+
+    public static class Entry {
+        public final RenderResult result;
+        // image destination -> `src` it was rendered with, only for the images which were replaced
+        public final Map<String, String> imageSources;
+
+        Entry(RenderResult result, Map<String, String> imageSources) {
+            this.result = result;
+            this.imageSources = imageSources;
+        }
+    }
+
+    private static class CachedFile {
+        final Path path;
+        final long size;
+        final long modifiedAt;
+
+        CachedFile(Path path, long size, long modifiedAt) {
+            this.path = path;
+            this.size = size;
+            this.modifiedAt = modifiedAt;
+        }
+    }
+}
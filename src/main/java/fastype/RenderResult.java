@@ -0,0 +1,163 @@
+package fastype;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything produced by rendering a document once: html, images, front matter and text stats.
+ */
+public class RenderResult {
+    private final String html;
+    private final List<String> images;
+    private final Map<String, List<String>> frontMatter;
+    private final int wordCount;
+    private final int characterCount;
+    // html offset of each top-level block and its heading level, 0 if it's not a heading
+    private final int[] blockOffsets;
+    private final int[] headingLevels;
+    // set on fragments whose html begins with a line break which is only written after html not ending with one
+    private final boolean leadingLineBreak;
+
+    RenderResult(String html, List<String> images, Map<String, List<String>> frontMatter, int wordCount, int characterCount,
+                 int[] blockOffsets, int[] headingLevels) {
+        this(html, images, frontMatter, wordCount, characterCount, blockOffsets, headingLevels, false);
+    }
+
+    RenderResult(String html, List<String> images, Map<String, List<String>> frontMatter, int wordCount, int characterCount,
+                 int[] blockOffsets, int[] headingLevels, boolean leadingLineBreak) {
+        this.html = html;
+        this.images = images;
+        this.frontMatter = frontMatter;
+        this.wordCount = wordCount;
+        this.characterCount = characterCount;
+        this.blockOffsets = blockOffsets;
+        this.headingLevels = headingLevels;
+        this.leadingLineBreak = leadingLineBreak;
+    }
+
+    /**
+     * Joins fragments rendered from consecutive runs of top-level blocks into the result of rendering them as one
+     * document.
+     */
+    static RenderResult concat(List<RenderResult> fragments) {
+        int length = 0;
+        int blocks = 0;
+        for (RenderResult fragment : fragments) {
+            length += fragment.html.length();
+            blocks += fragment.blockOffsets.length;
+        }
+
+        StringBuilder html = new StringBuilder(length);
+        List<String> images = new ArrayList<>();
+        Map<String, List<String>> frontMatter = new LinkedHashMap<>();
+        int wordCount = 0;
+        int characterCount = 0;
+        int[] blockOffsets = new int[blocks];
+        int[] headingLevels = new int[blocks];
+        int block = 0;
+
+        for (RenderResult fragment : fragments) {
+            int base = html.length();
+            // `HtmlWriter.line()` writes nothing at the start or after a line break
+            boolean dropLineBreak = fragment.leadingLineBreak && (base == 0 || html.charAt(base - 1) == '\n');
+            html.append(fragment.html, dropLineBreak ? 1 : 0, fragment.html.length());
+
+            for (int i = 0; i < fragment.blockOffsets.length; i++, block++) {
+                // blocks start before the line break they write
+                blockOffsets[block] = base + (dropLineBreak ? Math.max(0, fragment.blockOffsets[i] - 1) : fragment.blockOffsets[i]);
+                headingLevels[block] = fragment.headingLevels[i];
+            }
+
+            images.addAll(fragment.images);
+            frontMatter.putAll(fragment.frontMatter);
+            wordCount += fragment.wordCount;
+            characterCount += fragment.characterCount;
+        }
+
+        return new RenderResult(html.toString(), Collections.unmodifiableList(images), Collections.unmodifiableMap(frontMatter),
+                wordCount, characterCount, blockOffsets, headingLevels);
+    }
+
+    public String getHtml() {
+        return html;
+    }
+
+    /**
+     * Destinations of every image in document order.
+     */
+    public List<String> getImages() {
+        return images;
+    }
+
+    public Map<String, List<String>> getFrontMatter() {
+        return frontMatter;
+    }
+
+    /**
+     * Number of words in text and inline code, excluding code blocks and front matter.
+     */
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * Number of characters (code points) in text and inline code, excluding code blocks and front matter.
+     */
+    public int getCharacterCount() {
+        return characterCount;
+    }
+
+    boolean hasLeadingLineBreak() {
+        return leadingLineBreak;
+    }
+
+    int[] getBlockOffsets() {
+        return blockOffsets;
+    }
+
+    int[] getHeadingLevels() {
+        return headingLevels;
+    }
+
+    /**
+     * Splits the html into parts of at most `limit` characters between top-level blocks.
+     *
+     * A part ends before the last heading which fits if that keeps it at least half full, otherwise before the
+     * last block which fits. A single block longer than `limit` becomes a part of its own. The parts joined
+     * together are the html.
+     */
+    public List<String> split(int limit) {
+        if (html.length() <= limit) {
+            return List.of(html);
+        }
+
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int lastHeading = -1;
+        int lastBlock = -1;
+
+        for (int i = 0; i < blockOffsets.length; i++) {
+            int offset = blockOffsets[i];
+            int end = i + 1 < blockOffsets.length ? blockOffsets[i + 1] : html.length();
+
+            if (offset > start) {
+                lastBlock = offset;
+                if (headingLevels[i] > 0) {
+                    lastHeading = offset;
+                }
+            }
+
+            while (end - start > limit && lastBlock > start) {
+                int cut = lastHeading > start && lastHeading - start >= limit / 2 ? lastHeading : lastBlock;
+                parts.add(html.substring(start, cut));
+                start = cut;
+            }
+        }
+
+        parts.add(html.substring(start));
+        return parts;
+    }
+}
@@ -0,0 +1,275 @@
+package fastype;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Paces requests to a single site and retries the ones it pushes back on.
+ *
+ * - a token bucket caps the request rate, allowing bursts of up to a second worth of requests
+ * - the number of requests in flight is adjusted AIMD style: +1/limit per success and halved when the site
+ *   pushes back with 429, 502, 503 or 504
+ * - those responses and connection failures are retried after `Retry-After` or a jittered exponential backoff,
+ *   as long as the retry budget (10 plus 20% of requests) lasts, so a failing site is not sent a retry storm
+ *
+ * Connection failures of requests which are not idempotent are not retried, as they may have been processed.
+ */
+@Slf4j
+public class RequestScheduler {
+    private static final int maxAttempts = 4;
+    private static final long baseDelayMillis = 250;
+    private static final long maxDelayMillis = 30_000;
+    private static final double maxRetryBudget = 100;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "request-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Deque<Task<?>> queue = new ArrayDeque<>();
+    private final Counters counters = new Counters();
+
+    private double rate;
+    private double burst;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private boolean refillScheduled;
+
+    private int maxConcurrency;
+    private double limit;
+    private int inFlight;
+
+    private double retryBudget = 10;
+
+    /**
+     * @param rate requests per second
+     * @param maxConcurrency maximum requests in flight
+     */
+    public RequestScheduler(double rate, int maxConcurrency) {
+        configure(rate, maxConcurrency);
+        tokens = burst;
+    }
+
+    public synchronized void configure(double rate, int maxConcurrency) {
+        this.rate = Math.max(0.1, rate);
+        this.burst = Math.max(1, this.rate);
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.limit = Math.min(limit, this.maxConcurrency);
+        if (limit < 1) {
+            limit = this.maxConcurrency;
+        }
+    }
+
+    /**
+     * Runs `call` once a slot and a token are available, retrying it when it should be.
+     *
+     * @param idempotent whether `call` may be repeated when it failed without a response
+     */
+    public <T> CompletableFuture<HttpResponse<T>> submit(Supplier<CompletableFuture<HttpResponse<T>>> call, boolean idempotent) {
+        Task<T> task = new Task<>(call, idempotent);
+
+        synchronized (this) {
+            counters.requests++;
+            retryBudget = Math.min(maxRetryBudget, retryBudget + 0.2);
+        }
+
+        enqueue(task);
+        return task.result;
+    }
+
+    public synchronized Counters counters() {
+        Counters snapshot = new Counters();
+        snapshot.requests = counters.requests;
+        snapshot.attempts = counters.attempts;
+        snapshot.retries = counters.retries;
+        snapshot.throttled = counters.throttled;
+        snapshot.failed = counters.failed;
+        snapshot.budgetExhausted = counters.budgetExhausted;
+        snapshot.concurrencyLimit = (int) limit;
+        return snapshot;
+    }
+
+    private void enqueue(Task<?> task) {
+        synchronized (this) {
+            queue.add(task);
+        }
+        dispatch();
+    }
+
+    private void dispatch() {
+        List<Task<?>> ready = new ArrayList<>();
+
+        synchronized (this) {
+            refill();
+
+            while (!queue.isEmpty() && inFlight < (int) limit) {
+                if (tokens < 1) {
+                    if (!refillScheduled) {
+                        refillScheduled = true;
+                        long wait = (long) Math.ceil((1 - tokens) / rate * 1_000_000);
+                        timer.schedule(() -> {
+                            synchronized (this) {
+                                refillScheduled = false;
+                            }
+                            dispatch();
+                        }, wait, TimeUnit.MICROSECONDS);
+                    }
+                    break;
+                }
+
+                tokens -= 1;
+                inFlight++;
+                counters.attempts++;
+                ready.add(queue.poll());
+            }
+        }
+
+        for (Task<?> task : ready) {
+            start(task);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * rate);
+        refilledAt = now;
+    }
+
+    private <T> void start(Task<T> task) {
+        CompletableFuture<HttpResponse<T>> future;
+        try {
+            future = task.call.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((res, e) -> complete(task, res, e));
+    }
+
+    private <T> void complete(Task<T> task, HttpResponse<T> res, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        boolean pushedBack = res != null && retryable(res.statusCode());
+        boolean retry = false;
+        long delay = 0;
+
+        synchronized (this) {
+            inFlight--;
+
+            if (pushedBack) {
+                limit = Math.max(1, limit / 2);
+                if (res.statusCode() == 429) {
+                    counters.throttled++;
+                    Metrics.count("postype.throttled");
+                }
+            } else if (cause == null) {
+                limit = Math.min(maxConcurrency, limit + 1 / limit);
+            }
+
+            boolean retryable = pushedBack || (cause instanceof IOException && task.idempotent);
+            if (retryable && task.attempt + 1 < maxAttempts) {
+                if (retryBudget >= 1) {
+                    retryBudget -= 1;
+                    counters.retries++;
+                    Metrics.count("postype.retries");
+                    retry = true;
+                    task.attempt++;
+                    delay = res != null ? retryAfter(res).orElse(backoff(task.attempt)) : backoff(task.attempt);
+                } else {
+                    counters.budgetExhausted++;
+                }
+            }
+
+            if (!retry && (cause != null || pushedBack)) {
+                counters.failed++;
+            }
+        }
+
+        if (retry) {
+            log.debug("retrying in {} ms ({}): {}", delay, res != null ? "status " + res.statusCode() : cause.getMessage(),
+                    res != null ? res.uri() : "");
+            timer.schedule(() -> enqueue(task), delay, TimeUnit.MILLISECONDS);
+        } else if (cause != null) {
+            task.result.completeExceptionally(cause);
+        } else {
+            task.result.complete(res);
+        }
+
+        dispatch();
+    }
+
+    private static boolean retryable(int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * Full jitter: uniformly random up to the exponential backoff of `attempt`.
+     */
+    private static long backoff(int attempt) {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Delay asked by `Retry-After` in either seconds or http date.
+     */
+    static Optional<Long> retryAfter(HttpResponse<?> res) {
+        return res.headers().firstValue("Retry-After").map(value -> {
+            try {
+                return Long.parseLong(value.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                try {
+                    ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                    return Duration.between(ZonedDateTime.now(), at).toMillis();
+                } catch (DateTimeParseException ignored) {
+                    return null;
+                }
+            }
+        }).map(delay -> Math.min(maxDelayMillis, Math.max(0, delay)));
+    }
+
+    private static class Task<T> {
+        final Supplier<CompletableFuture<HttpResponse<T>>> call;
+        final boolean idempotent;
+        final CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        int attempt;
+
+        Task(Supplier<CompletableFuture<HttpResponse<T>>> call, boolean idempotent) {
+            this.call = call;
+            this.idempotent = idempotent;
+        }
+    }
+
+    public static class Counters {
+        public long requests;
+        public long attempts;
+        public long retries;
+        public long throttled;
+        public long failed;
+        public long budgetExhausted;
+        public int concurrencyLimit;
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d attempts, %d retries, %d throttled, %d failed, %d out of retry budget, concurrency %d",
+                    requests, attempts, retries, throttled, failed, budgetExhausted, concurrencyLimit);
+        }
+    }
+}
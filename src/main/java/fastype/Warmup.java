@@ -0,0 +1,31 @@
+package fastype;
+
+/**
+ * Exercises the code every command goes through: picocli, `Config`, `PostypeClient` and the markdown renderer.
+ *
+ * Used by the daemon to warm up and at package time as the training run for the class data sharing archive.
+ */
+public class Warmup {
+    private static final String markdown = "---\ntitle: warm up\n---\n\n" +
+            "# heading\n\nparagraph with `code`, *emphasis* and [link](https://example.com)\n\n" +
+            "```java\nclass Example {}\n```\n\n" +
+            "| a | b |\n|---|---|\n| 1 | 2 |\n\n" +
+            "![image](https://example.com/image.png)\n\n> quote\n";
+
+    public static void run(int iterations) {
+        Config.load();
+        PostypeClient.getDefault();
+
+        for (String command : new String[] { "auth", "draft", "config", "daemon" }) {
+            Fastype.commandLine(new String[] { command }).parseArgs(command);
+        }
+
+        for (int i = 0; i < iterations; i++) {
+            new MarkdownRenderer(markdown).renderResult();
+        }
+    }
+
+    public static void main(String[] args) {
+        run(10);
+    }
+}
@@ -22,9 +22,7 @@ public class AuthCommand implements Callable<Integer> {
     public Integer call() throws Exception {
         if (interactive) {
             log.debug("chrome browser will be open in a moment...");
-            Auth auth = Auth.getInstance();
-            String token = auth.getToken();
-            Config.set("token", token);
+            Config.set("token", loginWithBrowser());
         } else {
             if (token.isEmpty()) {
                 return 2;
@@ -35,4 +33,9 @@ public class AuthCommand implements Callable<Integer> {
         Config.write();
         return 0;
     }
+
+    // the only path to Selenium, so its classes are loaded only when `-i` is given
+    private static String loginWithBrowser() throws Exception {
+        return Auth.getInstance().getToken();
+    }
 }
@@ -0,0 +1,35 @@
+package fastype.cmd;
+
+import fastype.Daemon;
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine.*;
+
+import java.util.concurrent.Callable;
+
+@Slf4j
+@Command(
+        name = "daemon",
+        description = {
+                "keep a warmed up fastype running in background so that other commands start instantly. " +
+                        "commands are forwarded to the daemon while it's running (set FASTYPE_NO_DAEMON to opt out)"
+        }
+)
+public class DaemonCommand implements Callable<Integer> {
+    @Option(names = { "--stop" }, description = "stop running daemon")
+    boolean stop;
+
+    @Override
+    public Integer call() throws Exception {
+        if (stop) {
+            if (Daemon.stopRunning()) {
+                log.debug("daemon will stop after this command");
+                return 0;
+            }
+            log.debug("daemon is not running");
+            return 1;
+        }
+
+        Daemon.start().serve();
+        return 0;
+    }
+}
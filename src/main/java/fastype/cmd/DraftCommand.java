@@ -1,28 +1,45 @@
 package fastype.cmd;
 
+import fastype.BlockCache;
 import fastype.Config;
+import fastype.FileHelper;
+import fastype.FileWatcher;
+import fastype.ImageCache;
+import fastype.ImageDownloader;
+import fastype.ImageProcessor;
+import fastype.ImageUploader;
 import fastype.MarkdownRenderer;
-import fastype.PostypeRenderer;
+import fastype.Metrics;
+import fastype.PostypeClient;
+import fastype.PublishState;
+import fastype.RenderCache;
+import fastype.RenderResult;
 import lombok.extern.slf4j.Slf4j;
 import picocli.CommandLine.*;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
-import java.net.URL;
-import java.net.URLEncoder;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
-import org.apache.commons.lang3.RandomStringUtils;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Command(
@@ -36,7 +53,7 @@ public class DraftCommand implements Callable<Integer>  {
     @Option(names = { "--id" }, description = "id of a a draft")
     Integer id;
 
-    @Option(names = { "--content" }, description = "markdown content in string or path to a .md file", defaultValue = "")
+    @Option(names = { "--content" }, description = "markdown content in string, path to a .md file or `-` to read it from stdin", defaultValue = "")
     String content;
 
     @Option(names = { "--title" }, description = "title of draft. If omitted and .md file contains front matter with key `title` then it will be used instead", defaultValue = "제목 없음")
@@ -48,47 +65,112 @@ public class DraftCommand implements Callable<Integer>  {
     @Option(names = { "-ip", "--image-path" }, description = "path to download images")
     String imagePath;
 
+    @Option(names = { "--image-concurrency" }, description = "maximum number of images downloaded at the same time", defaultValue = "8")
+    int imageConcurrency;
+
+    @Option(names = { "--max-width" }, description = "downscale images wider than this many pixels and recompress them " +
+            "before they are uploaded or saved to `--image-path`")
+    Integer maxWidth;
+
+    @Option(names = { "--quality" }, description = "JPEG quality (0.0 - 1.0) of images recompressed by `--max-width`", defaultValue = "0.85")
+    float quality;
+
+    @Option(names = { "--dir" }, description = "directory or glob (e.g. `./notes/**/*.md`) of .md files to save in batch. " +
+            "front matter key `id` is used as draft id of each file, otherwise new draft will be generated")
+    String dir;
+
+    @Option(names = { "--concurrency" }, description = "maximum number of concurrent requests to Postype in batch mode", defaultValue = "4")
+    int concurrency;
+
+    @Option(names = { "--rate" }, description = "maximum number of requests per second to Postype", defaultValue = "5")
+    double rate;
+
+    @Option(names = { "--force" }, description = "save even if markdown is unchanged since last save")
+    boolean force;
+
+    @Option(names = { "--watch" }, description = "keep running and save draft whenever `content` .md file (or its local images) changes")
+    boolean watch;
+
+    @Option(names = { "--debounce" }, description = "milliseconds to wait for further changes before saving in watch mode", defaultValue = "300")
+    long debounce;
+
+    @Option(names = { "--parallel" }, description = "parse and render a very long post on all cores. Ignored in watch mode, which re-renders only what changed")
+    boolean parallel;
+
+    // room left in each part for the links to the other parts
+    private static final int navigationReserve = 1000;
+
+    private final PublishState publishState = new PublishState();
+
     @Override
     public Integer call() throws Exception {
         log.debug("loading config...");
         Config.load();
 
+        postype.scheduler().configure(rate, concurrency);
+
+        if (maxWidth != null) {
+            imageProcessor = new ImageProcessor(maxWidth, quality);
+        }
+        imageDownloader = new ImageDownloader(imageCache, imageProcessor, imageConcurrency);
+
+        if (dir != null) {
+            return saveDrafts(dir);
+        }
+
+        if (content.equals("-")) {
+            // e.g. `pbpaste | fastype draft --content -`
+            content = FileHelper.read(System.in);
+        }
+
         if (id == null) {
-            int newDraftId = createNewDraft();
+            int newDraftId = postype.createDraft().join();
             log.debug("new draft created: checkout https://www.postype.com/edit/" + newDraftId);
         } else {
-            if (draftExists(id)) {
-                if (content.isEmpty()) {
-                    log.debug("`content` is empty!");
-                    return 2;
-                }
-
-                PostypeRenderer renderer = content.endsWith(".md") ?
-                        new MarkdownRenderer(Paths.get(content)) : new MarkdownRenderer(content);
+            if (content.isEmpty()) {
+                log.debug("`content` is empty!");
+                return 2;
+            }
 
-                String post = renderer.render();
+            Path source = content.endsWith(".md") ? FileHelper.resolve(content) : null;
 
-                if (title.isEmpty() || subtitle.isEmpty()) {
-                    Map<String, List<String>> frontMatter = renderer.collectFrontMatter();
+            if (watch) {
+                if (source == null) {
+                    log.debug("--watch requires `content` to be a .md file");
+                    return 2;
+                }
+                return watchDraft(id, source);
+            }
 
-                    if (frontMatter.get("title") != null) {
-                        title = frontMatter.get("title").get(0);
-                    }
+            // the existence check is in flight while the markdown is rendered
+            CompletableFuture<Boolean> exists = postype.draftExists(id);
+            RenderedDraft draft = Metrics.time("draft.prepare", () -> renderDraft(id, source).join());
 
-                    if (frontMatter.get("subtitle") != null) {
-                        subtitle = frontMatter.get("subtitle").get(0);
-                    }
+            if (draft.upToDate) {
+                log.debug("draft {} is up to date, skipping...", id);
+                if (imagePath != null) {
+                    downloadImages(imagePath, draft.images);
+                    Runtime.getRuntime().exec("open " + FileHelper.resolve(imagePath));
                 }
+                return 0;
+            }
 
-                savePost(id, post, title, subtitle);
+            if (exists.join()) {
+                if (draft.sameOutput) {
+                    log.debug("rendered post is unchanged, skipping save...");
+                    recordDraft(draft);
+                } else if (savePost(draft)) {
+                    recordDraft(draft);
+                }
+                publishState.save();
 
                 if (imagePath == null) {
                     log.debug("--image-path is empty");
                     return 2;
                 }
 
-                List<String> sources = renderer.collectImages();
-                downloadImages(imagePath, sources);
+                downloadImages(imagePath, draft.images);
+                Runtime.getRuntime().exec("open " + FileHelper.resolve(imagePath));
             } else {
                 log.debug("draft with id {} not exists!", id);
             }
@@ -97,135 +179,584 @@ public class DraftCommand implements Callable<Integer>  {
         return 0;
     }
 
-    private final HttpClient client = HttpClient.newBuilder()
-            .followRedirects(HttpClient.Redirect.ALWAYS)
-            .build();
+    private Integer watchDraft(int draftId, Path source) throws IOException, InterruptedException {
+        // an edit re-renders only the blocks it touched
+        blockCache = new BlockCache();
 
-    private Integer createNewDraft() throws IOException, InterruptedException {
-        if (Config.get("token") == null) {
-            log.debug("`token` is not set in config! please execute `auth` command first.");
-            return -1;
+        CompletableFuture<Boolean> exists = postype.draftExists(draftId);
+        RenderedDraft draft = renderDraft(draftId, source).join();
+
+        if (!exists.join()) {
+            log.debug("draft with id {} not exists!", draftId);
+            return 0;
         }
 
-        String blogId = Config.get("blogId");
-        if (blogId == null) {
-            log.debug("`blogUrl` is not set in config!");
-            return -1;
+        try (FileWatcher watcher = new FileWatcher(debounce)) {
+            Set<Path> files = new HashSet<>(Set.of(source));
+            watcher.watch(files);
+
+            saveWatchedDraft(draft);
+            files.addAll(localImages(source, draft.images));
+            watcher.watch(files);
+
+            log.debug("watching {} for changes...", source);
+
+            while (true) {
+                Set<Path> changed = watcher.awaitChange();
+                long startedAt = System.nanoTime();
+                log.debug("changed: {}", changed);
+
+                try {
+                    draft = renderDraft(draftId, source).join();
+                } catch (UncheckedIOException e) {
+                    log.debug("failed to read {}: {}", source, e.getMessage());
+                    continue;
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    log.debug("failed to render {}: {}", source, cause.toString());
+                    continue;
+                }
+
+                if (draft.upToDate) {
+                    continue;
+                }
+
+                saveWatchedDraft(draft);
+
+                files = new HashSet<>(Set.of(source));
+                files.addAll(localImages(source, draft.images));
+                watcher.watch(files);
+
+                log.debug("done in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+            }
         }
+    }
 
-        HttpRequest req = HttpRequest.newBuilder()
-                .uri(URI.create("https://www.postype.com/edit?blog_id=" + blogId))
-                .GET()
-                .header("Cookie", "PSE1=" + Config.get("token"))
-                .build();
+    /**
+     * Saves `draft`, or logs why it failed to, leaving it unrecorded so that the next change saves it again.
+     */
+    private void saveWatchedDraft(RenderedDraft draft) throws IOException {
+        if (draft.upToDate) {
+            return;
+        }
 
-        HttpResponse<Void> res = client.send(req, HttpResponse.BodyHandlers.discarding());
+        try {
+            if (draft.sameOutput) {
+                log.debug("rendered post is unchanged, skipping save...");
+                recordDraft(draft);
+            } else if (savePost(draft)) {
+                recordDraft(draft);
+            } else {
+                log.debug("failed to save draft {}, it's saved again on the next change", draft.id);
+            }
+        } catch (CompletionException e) {
+            // e.g. a timeout once the scheduler gave up retrying, which shouldn't end watching
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            log.debug("failed to save draft {}, it's saved again on the next change: {}", draft.id, cause.toString());
+        }
+        publishState.save();
+    }
 
-        String path = res.uri().getPath();
+    /**
+     * Resolves images which are not urls against the directory of `source`.
+     */
+    private static Set<Path> localImages(Path source, List<String> images) {
+        Set<Path> paths = new HashSet<>();
+        Path dir = imageDir(source);
+
+        for (String image : images) {
+            Path path = localImage(dir, image);
+            if (path != null) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
 
-        String[] paths = path.split("/");
+    /**
+     * `size:modifiedAt` of each local image which exists, by its destination.
+     */
+    private static Map<String, String> localImageStamps(Path source, List<String> images) throws IOException {
+        Map<String, String> stamps = new TreeMap<>();
+        Path dir = imageDir(source);
+
+        for (String image : images) {
+            Path path = localImage(dir, image);
+            if (path != null && Files.isRegularFile(path)) {
+                stamps.put(image, Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis());
+            }
+        }
+        return stamps;
+    }
 
-        return Integer.parseInt(paths[paths.length-1]);
+    // images of `content` are relative to the working directory
+    private static Path imageDir(Path source) {
+        return source != null ? source.toAbsolutePath().getParent() : FileHelper.resolve(".").toAbsolutePath();
     }
 
-    private boolean draftExists(int draftId) throws IOException, InterruptedException {
-        String blogUrl = Config.get("blogUrl");
+    private static Path localImage(Path dir, String image) {
+        if (image.matches("^[a-zA-Z][a-zA-Z0-9+.-]*:.*")) {
+            return null;
+        }
 
-        if (blogUrl == null) {
-            log.debug("`blogUrl` is not set in config!");
-            return false;
+        try {
+            Path path = dir.resolve(image).normalize();
+            if (Files.notExists(path)) {
+                // exports such as notion's percent-encode file names, e.g. `./images/my%20image.png`
+                String decoded = URI.create(image).getPath();
+                if (decoded != null) {
+                    path = dir.resolve(decoded).normalize();
+                }
+            }
+            return path;
+        } catch (IllegalArgumentException e) {
+            // invalid path (`InvalidPathException`) or uri
+            return null;
         }
+    }
 
-        HttpClient client = HttpClient.newBuilder()
-                .followRedirects(HttpClient.Redirect.NEVER)
-                .build();
+    /**
+     * Uploads local images of `source` (or of `content`, relative to the working directory) in parallel.
+     *
+     * @return completes with the url each uploaded image destination should be replaced with, once every upload is
+     * done or failed
+     */
+    private CompletableFuture<Map<String, String>> uploadLocalImages(Path source, List<String> images) {
+        Path dir = imageDir(source);
+        Map<String, CompletableFuture<String>> uploads = new LinkedHashMap<>();
+
+        for (String image : images) {
+            Path file = uploads.containsKey(image) ? null : localImage(dir, image);
+            if (file != null && Files.isRegularFile(file)) {
+                uploads.put(image, processImage(file).thenCompose(imageUploader::upload));
+            }
+        }
 
-        HttpRequest req = HttpRequest.newBuilder()
-                .uri(URI.create("https://www.postype.com/edit/" + draftId))
-                .GET()
-                .build();
+        if (uploads.isEmpty()) {
+            return CompletableFuture.completedFuture(Map.of());
+        }
 
-        HttpResponse<Void> res = client.send(req, HttpResponse.BodyHandlers.discarding());
-        return res.statusCode() != 404 && res.uri().toString().equals("https://www.postype.com/edit/" + draftId);
+        CompletableFuture<Map<String, String>> uploaded = CompletableFuture
+                .allOf(uploads.values().toArray(new CompletableFuture[0]))
+                .handle((done, failure) -> {
+                    Map<String, String> urls = new HashMap<>();
+                    uploads.forEach((image, upload) -> {
+                        try {
+                            urls.put(image, upload.join());
+                        } catch (CompletionException e) {
+                            Throwable cause = e.getCause() != null ? e.getCause() : e;
+                            log.debug("failed to upload {}: {}", image, cause.getMessage());
+                        }
+                    });
+                    imageUploader.save();
+
+                    log.debug("{} local images uploaded, {} failed", urls.size(), uploads.size() - urls.size());
+                    return urls;
+                });
+        return Metrics.time("draft.uploadImages", uploaded);
     }
 
-    private void savePost(int draftId, String body, String title, String subtitle) throws IOException, InterruptedException {
-        String blogId = Config.get("blogId");
-        String token = Config.get("token");
+    private Integer saveDrafts(String pattern) throws IOException {
+        List<Path> files = FileHelper.findMarkdownFiles(pattern);
 
-        if (blogId == null) {
-            log.debug("`blogUrl` is not set in config!");
-            return;
+        if (files.isEmpty()) {
+            log.debug("no .md file matches {}", pattern);
+            return 2;
         }
 
-        if (token == null) {
-            log.debug("`token` is not set in config! please execute `auth` command first.");
-            return;
+        log.debug("saving {} drafts...", files.size());
+
+        // rendering is cpu bound while `createDraft`, `draftExists` and `savePost` are io bound,
+        // so each of them gets its own pool and the network pool caps the requests in flight
+        ExecutorService renderPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        ExecutorService networkPool = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        renderExecutor = renderPool;
+
+        List<BatchResult> results;
+        try {
+            List<CompletableFuture<BatchResult>> futures = files.stream()
+                    .map(file -> CompletableFuture
+                            .supplyAsync(() -> Metrics.time("draft.prepare", renderDraft(null, file)), renderPool)
+                            .thenCompose(draft -> draft)
+                            .thenApplyAsync(draft -> Metrics.time("draft.publish", () -> publishDraft(draft)), networkPool)
+                            .handle((draft, e) -> new BatchResult(file, draft, e)))
+                    .collect(Collectors.toList());
+
+            results = futures.stream()
+                    .map(CompletableFuture::join)
+                    .collect(Collectors.toList());
+        } finally {
+            renderPool.shutdown();
+            networkPool.shutdown();
+            publishState.save();
         }
 
-        Map<Object, Object> formData = new HashMap<>();
-        formData.put("characters_limit", "250000");
-        formData.put("post_id", String.valueOf(draftId));
-        formData.put("content", body);
-        formData.put("blog_id", blogId);
-        formData.put("auto_save", 1);
-        formData.put("default_font", "font-sans-serif");
-        formData.put("default_align", "text-left");
-        formData.put("use_indent", 0);
-        formData.put("use_p_margin", 1);
-        formData.put("title", title);
-        formData.put("sub_title", subtitle);
-
-        HttpRequest req = HttpRequest.newBuilder()
-                .uri(URI.create("https://www.postype.com/api/post/save"))
-                .POST(buildFormData(formData))
-                .header("Cookie", "PSE1=" + token)
-                .header("Content-Type", "application/x-www-form-urlencoded")
-                .build();
-
-        HttpResponse<String> res = client.send(req, HttpResponse.BodyHandlers.ofString());
-
-        if (res.statusCode() == 200) {
-            log.debug("post saved successfully");
-        } else {
-            log.debug("failed to save post status: {}", res.statusCode());
+        long failed = results.stream().filter(result -> result.error != null).count();
+        long skipped = results.stream().filter(result -> result.error == null && result.draft.upToDate).count();
+
+        for (BatchResult result : results) {
+            if (result.error == null && result.draft.upToDate) {
+                log.info("[SKIP] {} -> https://www.postype.com/edit/{}", result.file, result.draft.id);
+            } else if (result.error == null) {
+                log.info("[OK]   {} -> https://www.postype.com/edit/{}", result.file, result.draft.id);
+            } else {
+                Throwable cause = result.error.getCause() != null ? result.error.getCause() : result.error;
+                log.info("[FAIL] {}: {}", result.file, cause.getMessage());
+            }
+        }
+        log.info("{} saved, {} up to date, {} failed", results.size() - failed - skipped, skipped, failed);
+        log.debug("postype: {}", postype.scheduler().counters());
+
+        if (imagePath != null && failed < results.size()) {
+            Runtime.getRuntime().exec("open " + FileHelper.resolve(imagePath));
         }
+
+        return failed == 0 ? 0 : 1;
     }
 
-    public static HttpRequest.BodyPublisher buildFormData(Map<Object, Object> data) {
-        var builder = new StringBuilder();
-        for (Map.Entry<Object, Object> entry : data.entrySet()) {
-            if (builder.length() > 0) {
-                builder.append("&");
+    /**
+     * Renders `source` (or `content` if `source` is null) unless it is unchanged since it was last saved.
+     *
+     * Markdown is read and parsed on the calling thread, and rendered on `renderExecutor` once its local images are
+     * uploaded.
+     */
+    private CompletableFuture<RenderedDraft> renderDraft(Integer draftId, Path source) {
+        RenderedDraft draft = new RenderedDraft();
+        draft.id = draftId;
+        draft.source = source;
+        draft.key = PublishState.key(draftId, source);
+        draft.title = title;
+        draft.subtitle = subtitle;
+        draft.optionsHash = FileHelper.sha256(title + "\n" + subtitle);
+
+        PublishState.Entry previous = force ? null : publishState.get(draft.key);
+
+        // drafts of the other parts are kept even with --force so that they are not created again
+        PublishState.Entry recorded = publishState.get(draft.key);
+        if (recorded != null && recorded.partIds != null && (draftId == null || recorded.draftId == draftId)) {
+            draft.partIds = new ArrayList<>(recorded.partIds);
+        }
+
+        if (previous != null && draftId != null && previous.draftId != draftId) {
+            previous = null;
+        }
+
+        if (previous != null && !draft.optionsHash.equals(previous.optionsHash)) {
+            previous = null;
+        }
+
+        // images of a post recorded before they were, which are needed to download them or to tell if they changed
+        if (previous != null && previous.images == null) {
+            previous = null;
+        }
+
+        try {
+            // an image replaced in place is uploaded again though the markdown is unchanged
+            boolean sameImages = previous != null && previous.sameImages(localImageStamps(source, previous.images));
+
+            // a file which has the same size and mtime as last time is not even read
+            if (sameImages && source != null && previous.sameFile(source)) {
+                draft.id = previous.draftId;
+                draft.images = previous.images;
+                draft.upToDate = true;
+                Metrics.count("publishState.hit");
+                return CompletableFuture.completedFuture(draft);
             }
-            builder.append(URLEncoder.encode(entry.getKey().toString(), StandardCharsets.UTF_8));
-            builder.append("=");
-            builder.append(URLEncoder.encode(entry.getValue().toString(), StandardCharsets.UTF_8));
+
+            String markdown = source != null ? FileHelper.readFile(source) : content;
+            draft.markdownHash = FileHelper.sha256(markdown);
+
+            if (sameImages && draft.markdownHash.equals(previous.markdownHash)) {
+                draft.id = previous.draftId;
+                draft.images = previous.images;
+                draft.upToDate = true;
+                Metrics.count("publishState.hit");
+                if (source != null) {
+                    // remember the new mtime so that next run can skip by stat
+                    previous.size = Files.size(source);
+                    previous.modifiedAt = Files.getLastModifiedTime(source).toMillis();
+                }
+                return CompletableFuture.completedFuture(draft);
+            }
+
+            Metrics.count("publishState.miss");
+            Metrics.count("markdown.bytes", markdown.length());
+
+            PublishState.Entry last = previous;
+            return render(source, markdown, draft.markdownHash).thenApply(result -> {
+                draft.html = result.getHtml();
+                draft.parts = result.split(PostypeClient.characterLimit - navigationReserve);
+
+                Map<String, List<String>> frontMatter = result.getFrontMatter();
+
+                if (draft.id == null && frontMatter.get("id") != null) {
+                    draft.id = Integer.valueOf(frontMatter.get("id").get(0).trim());
+                } else if (draft.id == null && last != null) {
+                    draft.id = last.draftId;
+                }
+
+                if (frontMatter.get("title") != null) {
+                    draft.title = frontMatter.get("title").get(0);
+                }
+
+                if (frontMatter.get("subtitle") != null) {
+                    draft.subtitle = frontMatter.get("subtitle").get(0);
+                }
+
+                draft.images = result.getImages();
+
+                draft.frontMatterHash = FileHelper.sha256(frontMatter.toString());
+                draft.htmlHash = FileHelper.sha256(draft.html);
+                draft.sameOutput = last != null && Objects.equals(draft.id, last.draftId) &&
+                        last.sameOutput(draft.frontMatterHash, draft.htmlHash);
+
+                return draft;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return HttpRequest.BodyPublishers.ofString(builder.toString());
     }
 
-    public void downloadImages(String dest, List<String> sources) throws IOException {
-        Path folder = Paths.get(dest);
-        Files.createDirectories(folder);
-
-        for (String source : sources) {
-            String path = new URL(source).getPath();
-            String[] split = path.split("/");
-            String imageName = split[split.length-1];
-
-            try (InputStream in = new URL(source).openStream()) {
-                Path dir = Paths.get(folder.toString() + "/" + RandomStringUtils.randomAlphanumeric(8) + "_" + imageName);
-
-                if (Files.notExists(dir)) {
-                    Files.copy(in, dir);
-                    log.debug("download completed: {}", dir);
-                } else {
-                    log.debug("file {} already exists, skipping...", dir);
+    /**
+     * Renders `markdown` with its local images replaced by their uploaded urls, or reuses the html it was rendered
+     * to before if the images are uploaded to the same urls.
+     */
+    private CompletableFuture<RenderResult> render(Path source, String markdown, String markdownHash) {
+        RenderCache.Entry cached = renderCache.get(markdownHash);
+        if (cached == null) {
+            return renderUploaded(source, markdown, markdownHash);
+        }
+
+        // images are already uploaded unless they changed, so this only hashes them
+        return uploadLocalImages(source, cached.result.getImages())
+                .thenComposeAsync(uploads -> uploads.equals(cached.imageSources)
+                        ? CompletableFuture.completedFuture(cached.result)
+                        : renderUploaded(source, markdown, markdownHash), renderExecutor);
+    }
+
+    private CompletableFuture<RenderResult> renderUploaded(Path source, String markdown, String markdownHash) {
+        MarkdownRenderer renderer = blockCache != null ? new MarkdownRenderer(markdown, blockCache)
+                : parallel ? new MarkdownRenderer(markdown, ForkJoinPool.commonPool())
+                : new MarkdownRenderer(markdown);
+
+        // local images are uploaded first so that the render writes their urls, without holding a render thread
+        return uploadLocalImages(source, renderer.imageDestinations())
+                .thenApplyAsync(uploads -> {
+                    RenderResult result = renderer.renderResult(image -> uploads.getOrDefault(image, image));
+                    renderCache.put(markdownHash, result, uploads);
+                    return result;
+                }, renderExecutor);
+    }
+
+    private RenderedDraft publishDraft(RenderedDraft draft) {
+        try {
+            if (draft.upToDate) {
+                if (imagePath != null) {
+                    downloadImages(imagePath, draft.images);
                 }
+                return draft;
             }
+
+            if (draft.id == null) {
+                int draftId = postype.createDraft().join();
+                if (draftId == -1) {
+                    throw new IllegalStateException("failed to create new draft");
+                }
+                draft.id = draftId;
+            } else if (!postype.draftExists(draft.id).join()) {
+                throw new IllegalStateException("draft with id " + draft.id + " not exists");
+            }
+
+            if (!draft.sameOutput && !savePost(draft)) {
+                throw new IllegalStateException("failed to save draft " + draft.id);
+            }
+            recordDraft(draft);
+
+            if (imagePath != null) {
+                downloadImages(imagePath, draft.images);
+            }
+
+            return draft;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Saves `draft`, or if it's longer than the character limit, saves each part to its own draft (the first
+     * part to `draft.id`) with links to the previous and next parts.
+     */
+    private boolean savePost(RenderedDraft draft) {
+        if (draft.parts.size() <= 1) {
+            return postype.savePost(draft.id, draft.html, draft.title, draft.subtitle).join();
+        }
+
+        int count = draft.parts.size();
+        log.debug("post is longer than {} characters, saving in {} parts...", PostypeClient.characterLimit, count);
+
+        // drafts of the parts are allocated in parallel, reusing the ones of the last save
+        List<CompletableFuture<Integer>> allocated = new ArrayList<>();
+        allocated.add(CompletableFuture.completedFuture(draft.id));
+        for (int i = 1; i < count; i++) {
+            allocated.add(i - 1 < draft.partIds.size() ?
+                    CompletableFuture.completedFuture(draft.partIds.get(i - 1)) :
+                    postype.createDraft());
+        }
+
+        List<Integer> ids = new ArrayList<>();
+        for (CompletableFuture<Integer> partId : allocated) {
+            try {
+                ids.add(partId.join());
+            } catch (CompletionException e) {
+                ids.add(-1);
+            }
+        }
+
+        // drafts created for the parts are kept even if another fails or a save does, so that they are reused
+        // instead of created again. Drafts of parts no longer needed are kept too, the post may grow again
+        int reused = draft.partIds.size();
+        for (int i = reused + 1; i < count; i++) {
+            if (ids.get(i) != -1) {
+                draft.partIds.add(ids.get(i));
+            }
+        }
+        if (draft.partIds.size() > reused) {
+            recordPartIds(draft);
         }
 
-        Runtime.getRuntime().exec("open " + folder);
+        if (ids.contains(-1)) {
+            log.debug("failed to create drafts of the parts");
+            return false;
+        }
+
+        String blogUrl = Config.blogUrl();
+        List<CompletableFuture<Boolean>> saves = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String title = draft.title + " (" + (i + 1) + "/" + count + ")";
+            String html = draft.parts.get(i) + navigation(blogUrl, ids, i);
+            saves.add(postype.savePost(ids.get(i), html, title, draft.subtitle));
+        }
+
+        return saves.stream()
+                .map(CompletableFuture::join)
+                .reduce(true, (a, b) -> a && b);
+    }
+
+    private static String navigation(String blogUrl, List<Integer> ids, int index) {
+        StringBuilder html = new StringBuilder("\n<p>");
+
+        if (index > 0) {
+            html.append("<a href=\"").append(blogUrl).append("/post/").append(ids.get(index - 1))
+                    .append("\" rel=\"nofollow noopener noreferrer\" target=\"_blank\">← 이전 글</a> ");
+        }
+
+        html.append("(").append(index + 1).append("/").append(ids.size()).append(")");
+
+        if (index + 1 < ids.size()) {
+            html.append(" <a href=\"").append(blogUrl).append("/post/").append(ids.get(index + 1))
+                    .append("\" rel=\"nofollow noopener noreferrer\" target=\"_blank\">다음 글 →</a>");
+        }
+
+        return html.append("</p>").toString();
+    }
+
+    /**
+     * Records the drafts of the parts of `draft` before it's saved, keeping the rest of what was recorded.
+     */
+    private void recordPartIds(RenderedDraft draft) {
+        PublishState.Entry entry = publishState.get(draft.key);
+        if (entry == null || entry.draftId != draft.id) {
+            // not yet saved, so it's never up to date
+            entry = new PublishState.Entry();
+            entry.draftId = draft.id;
+            publishState.put(draft.key, entry);
+        }
+        entry.partIds = new ArrayList<>(draft.partIds);
+        publishState.save();
+    }
+
+    private void recordDraft(RenderedDraft draft) throws IOException {
+        PublishState.Entry entry = new PublishState.Entry();
+        entry.draftId = draft.id;
+        entry.optionsHash = draft.optionsHash;
+        entry.markdownHash = draft.markdownHash;
+        entry.frontMatterHash = draft.frontMatterHash;
+        entry.htmlHash = draft.htmlHash;
+        entry.partIds = draft.partIds.isEmpty() ? null : draft.partIds;
+        entry.images = draft.images;
+        Map<String, String> imageStamps = localImageStamps(draft.source, draft.images);
+        entry.imageStamps = imageStamps.isEmpty() ? null : imageStamps;
+
+        if (draft.source != null) {
+            entry.size = Files.size(draft.source);
+            entry.modifiedAt = Files.getLastModifiedTime(draft.source).toMillis();
+        }
+
+        publishState.put(draft.key, entry);
+    }
+
+    private static class RenderedDraft {
+        Integer id;
+        Path source;
+        String key;
+        String title;
+        String subtitle;
+        String html;
+        // html split to fit the character limit, a single part for most posts
+        List<String> parts = List.of();
+        List<Integer> partIds = new ArrayList<>();
+        List<String> images = new ArrayList<>();
+
+        String optionsHash;
+        String markdownHash;
+        String frontMatterHash;
+        String htmlHash;
+
+        // markdown is unchanged so it was neither rendered nor needs to be saved
+        boolean upToDate;
+        // markdown changed but rendered post is the same as the one saved last time
+        boolean sameOutput;
+    }
+
+    private static class BatchResult {
+        final Path file;
+        final RenderedDraft draft;
+        final Throwable error;
+
+        BatchResult(Path file, RenderedDraft draft, Throwable error) {
+            this.file = file;
+            this.draft = draft;
+            this.error = error;
+        }
+    }
+
+    private final PostypeClient postype = PostypeClient.getDefault();
+
+    private final ImageCache imageCache = new ImageCache(postype);
+
+    private final ImageUploader imageUploader = new ImageUploader(postype);
+
+    private final RenderCache renderCache = new RenderCache();
+
+    // null unless `--watch` is given
+    private BlockCache blockCache;
+
+    // null unless `--max-width` is given
+    private ImageProcessor imageProcessor;
+
+    // renders markdown once its local images are uploaded, the render pool in batch mode
+    private Executor renderExecutor = ForkJoinPool.commonPool();
+
+    // created once `--image-concurrency` and `--max-width` are known
+    private ImageDownloader imageDownloader;
+
+    public void downloadImages(String dest, List<String> sources) throws IOException {
+        long startedAt = System.nanoTime();
+        imageDownloader.download(FileHelper.resolve(dest), sources);
+        Metrics.timer("draft.downloadImages").recordSince(startedAt);
+    }
+
+    private CompletableFuture<Path> processImage(Path image) {
+        return imageProcessor != null ? imageProcessor.process(image) : CompletableFuture.completedFuture(image);
     }
 }
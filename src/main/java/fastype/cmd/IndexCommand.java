@@ -0,0 +1,154 @@
+package fastype.cmd;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import fastype.FileHelper;
+import fastype.FrontMatterScanner;
+import fastype.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Command(
+        name = "index",
+        description = {
+                "list the front matter (title, subtitle, tags, ...) of every .md file in a directory as json or csv. " +
+                        "only the front matter of each file is read, so thousands of files are listed in moments"
+        }
+)
+public class IndexCommand implements Callable<Integer> {
+    @Option(names = { "--dir" }, required = true, description = "directory or glob (e.g. `./notes/**/*.md`) of .md files to list")
+    String dir;
+
+    @Option(names = { "--format" }, description = "format of the listing: ${COMPLETION-CANDIDATES}", defaultValue = "json")
+    Format format;
+
+    enum Format { json, csv }
+
+    @Option(names = { "--keys" }, split = ",", description = "front matter keys to list as csv columns, in order. every key found by default")
+    List<String> keys;
+
+    @Option(names = { "-o", "--output" }, description = "file to write the listing to instead of stdout")
+    String output;
+
+    @Option(names = { "--concurrency" }, description = "maximum number of files read at the same time", defaultValue = "16")
+    int concurrency;
+
+    // values of a key are joined by this in a csv cell
+    private static final String csvValueSeparator = "; ";
+
+    @Override
+    public Integer call() throws IOException {
+        List<Path> files = FileHelper.findMarkdownFiles(dir);
+
+        if (files.isEmpty()) {
+            log.debug("no .md file matches {}", dir);
+            return 2;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        List<CompletableFuture<Map<String, List<String>>>> futures;
+        try {
+            futures = files.stream()
+                    .map(file -> CompletableFuture.supplyAsync(() -> Metrics.time("index.scan", () -> scan(file)), pool))
+                    .collect(Collectors.toList());
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).handle((result, e) -> null).join();
+        } finally {
+            pool.shutdown();
+        }
+
+        // paths are listed relative to where fastype was run
+        Path base = FileHelper.resolve("").toAbsolutePath().normalize();
+        Map<String, Map<String, List<String>>> listing = new LinkedHashMap<>();
+        int failed = 0;
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            try {
+                listing.put(base.relativize(file.toAbsolutePath().normalize()).toString(), futures.get(i).join());
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+                log.info("[FAIL] {}: {}", file, cause.toString());
+                failed++;
+            }
+        }
+
+        String text = format == Format.json ? json(listing) : csv(listing);
+        if (output != null) {
+            Files.writeString(FileHelper.resolve(output), text);
+        } else {
+            System.out.print(text);
+        }
+
+        log.debug("{} files listed, {} failed", listing.size(), failed);
+        return failed == 0 ? 0 : 1;
+    }
+
+    private static Map<String, List<String>> scan(Path file) {
+        try {
+            return FrontMatterScanner.scan(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String json(Map<String, Map<String, List<String>>> listing) throws IOException {
+        List<Map<String, Object>> entries = new ArrayList<>(listing.size());
+        listing.forEach((file, frontMatter) -> {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("file", file);
+            entry.put("frontMatter", frontMatter);
+            entries.add(entry);
+        });
+        return new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(entries) + "\n";
+    }
+
+    private String csv(Map<String, Map<String, List<String>>> listing) {
+        Set<String> columns = new LinkedHashSet<>();
+        if (keys != null) {
+            columns.addAll(keys);
+        } else {
+            listing.values().forEach(frontMatter -> columns.addAll(frontMatter.keySet()));
+        }
+
+        StringBuilder csv = new StringBuilder();
+        csv.append("file");
+        for (String column : columns) {
+            csv.append(',').append(csvCell(column));
+        }
+        csv.append('\n');
+
+        listing.forEach((file, frontMatter) -> {
+            csv.append(csvCell(file));
+            for (String column : columns) {
+                List<String> values = frontMatter.get(column);
+                csv.append(',').append(values == null ? "" : csvCell(String.join(csvValueSeparator, values)));
+            }
+            csv.append('\n');
+        });
+        return csv.toString();
+    }
+
+    private static String csvCell(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,81 @@
+package fastype;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockSplitterTest {
+    private final PostypeMarkdownEngine engine = PostypeMarkdownEngine.getDefault();
+
+    @Test
+    @DisplayName("`BlockSplitter` splits before top-level blocks")
+    void splits() {
+        List<String> blocks = BlockSplitter.split("---\ntitle: a\n\nb\n---\n# heading\n\nparagraph\nmore\n\n> quote\n\n```\ncode\n```\n\n| a |\n|---|\n| b |\n");
+
+        assertEquals(blocks, List.of("---\ntitle: a\n\nb\n---\n# heading\n\n", "paragraph\nmore\n\n", "> quote\n\n", "```\ncode\n```\n\n", "| a |\n|---|\n| b |\n"));
+    }
+
+    @Test
+    @DisplayName("`BlockSplitter` doesn't split what may continue a block")
+    void keepsContainers() {
+        assertBlocks("- item\n\n- loose item\n\n  continued\n\n1. ordered\n\n2) other\n", 1);
+        assertBlocks("paragraph\n\n---\n\n===\n\n***\n", 1);
+        assertBlocks("```\ncode\n\nnot a block\n```\n\n~~~~\n~~~\n\nstill code\n~~~~\n", 2);
+        assertBlocks("<!-- comment\n\nnot a block\n-->\n\n<script>\n\nnot a block\n</script>\n\nblock\n", 3);
+        assertBlocks("<div>\n\nblock\n", 2);
+        assertBlocks("\tindented\n\n\tcode\n\nblock\n", 2);
+        assertBlocks("---\ntitle: never closed\n\nparagraph\n", 1);
+    }
+
+    @Test
+    @DisplayName("`BlockSplitter` leaves the rest as one block where a line scan can't follow")
+    void givesUp() {
+        // the fence is in the list item, so the list ends before `para` and the last fence is top-level
+        assertBlocks("first\n\nsecond\n\n- item\n\n  ```\n  code\n\npara\n\n```\nreal code\n\nnot a block\n```\n", 2);
+        assertBlocks("first\n\nparagraph\n<span>html</span>\n```\ncode\n\nnot a block\n```\n", 2);
+        // a link reference definition applies to the whole document
+        assertBlocks("[link]\n\nparagraph\n\n[link]: https://example.com\n", 1);
+        assertBlocks("> [link]: https://example.com\n\n[link]\n", 1);
+    }
+
+    @Test
+    @DisplayName("blocks rendered one by one are the same as the document rendered at once")
+    void sameAsFullRender() {
+        Function<String, String> sources = image -> image.startsWith("./") ? "https://cdn.example.com/" + image.substring(2) : image;
+
+        for (String markdown : List.of(
+                "---\ntitle: t\n---\n\n# a\n\n```java\nint a;\n```\n```\nb\n```\n\npara ![i](./a.png)\n\n<div>\nx\n</div>\n\n## b\n",
+                "```\none\n```\n\n```\ntwo\n```\n\n- list\n\n***\n\n# heading\n",
+                "para `code` *em*\n\nword\n\n\n\n> quote\n> ![image](https://example.com/b.png)\n\n| a | b |\n|---|---|\n| c | d |\n",
+                "\n\nleading blank lines\n\ntrailing\n\n\n",
+                "windows\r\nline\r\n\r\nbreaks\r\n")) {
+            List<String> blocks = BlockSplitter.split(markdown);
+            assertEquals(String.join("", blocks), markdown);
+
+            RenderResult expected = engine.render(engine.parse(markdown), sources);
+            RenderResult actual = RenderResult.concat(blocks.stream()
+                    .map(block -> engine.renderFragment(engine.parse(block), sources))
+                    .collect(Collectors.toList()));
+
+            assertEquals(actual.getHtml(), expected.getHtml(), markdown);
+            assertArrayEquals(actual.getBlockOffsets(), expected.getBlockOffsets(), markdown);
+            assertArrayEquals(actual.getHeadingLevels(), expected.getHeadingLevels(), markdown);
+            assertEquals(actual.getImages(), expected.getImages());
+            assertEquals(actual.getFrontMatter(), expected.getFrontMatter());
+            assertEquals(actual.getWordCount(), expected.getWordCount());
+            assertEquals(actual.getCharacterCount(), expected.getCharacterCount());
+        }
+    }
+
+    private static void assertBlocks(String markdown, int count) {
+        List<String> blocks = BlockSplitter.split(markdown);
+
+        assertEquals(String.join("", blocks), markdown);
+        assertEquals(blocks.size(), count, blocks.toString());
+    }
+}
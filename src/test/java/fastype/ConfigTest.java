@@ -1,19 +1,65 @@
 package fastype;
 
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class ConfigTest {
+    @TempDir
+    Path dir;
+
+    private Path configFile;
+    private final List<String> lookedUp = new ArrayList<>();
+
+    @BeforeEach
+    void useTempConfig() {
+        configFile = dir.resolve("config.yaml");
+        Config.setFile(configFile);
+        Config.setBlogIdLookup(blogUrl -> {
+            lookedUp.add(blogUrl);
+            return 1234;
+        });
+    }
+
+    @AfterEach
+    void useUserConfig() {
+        Config.setFile(Path.of(System.getProperty("user.home"), ".config/fastype/config.yaml"));
+        Config.setBlogIdLookup(null);
+    }
+
     @Test
     @DisplayName("url value should be normalized and saved")
     void name() {
         Config.set("blogUrl", "https://gompro.postype.com/");
         Config.write();
         Config.load();
-        String value = Config.get("blogUrl");
 
-        assertEquals(value, "https://gompro.postype.com");
+        assertEquals("https://gompro.postype.com", Config.get("blogUrl"));
+        assertEquals("1234", Config.get("blogId"));
+        assertEquals(List.of("https://gompro.postype.com"), lookedUp);
+    }
+
+    @Test
+    @DisplayName("changes to config file should be picked up without restart")
+    void reload() throws Exception {
+        Config.set("testKey", "before");
+        Config.write();
+
+        assertEquals("before", Config.get("testKey"));
+
+        Files.writeString(configFile, "testKey: after\n");
+        Files.setLastModifiedTime(configFile, FileTime.fromMillis(System.currentTimeMillis() + 1000));
+
+        assertEquals("after", Config.get("testKey"));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package fastype;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileHelperTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("`readFile` reads the same as lines joined by `\\n`")
+    void sameAsLines() throws IOException {
+        for (String content : new String[] { "", "\n", "# 제목\r\n\r\ntext\rmore\n", "no line break", "two\n\n", "\r\n\r" }) {
+            Path file = Files.writeString(dir.resolve("post.md"), content);
+
+            assertEquals(FileHelper.readFile(file), String.join("\n", Files.readAllLines(file)));
+        }
+    }
+
+    @Test
+    @DisplayName("`readFile` reads a large file through a mapping")
+    void large() throws IOException {
+        String line = "이 문단은 `HttpClient`를 설명합니다. 😀\r\n";
+        Path file = Files.writeString(dir.resolve("large.md"), line.repeat(2 * 1024 * 1024 / line.length()));
+
+        assertTrue(Files.size(file) > 1024 * 1024);
+        assertEquals(FileHelper.readFile(file), String.join("\n", Files.readAllLines(file)));
+    }
+
+    @Test
+    @DisplayName("`readFile` throws instead of reading a broken file as empty")
+    void errors() throws IOException {
+        Path file = Files.write(dir.resolve("broken.md"), new byte[] { 'a', (byte) 0xc3, '(' });
+
+        assertThrows(CharacterCodingException.class, () -> FileHelper.readFile(file));
+        assertThrows(NoSuchFileException.class, () -> FileHelper.readFile(dir.resolve("missing.md")));
+    }
+
+    @Test
+    @DisplayName("`read` reads a stream the same as `readFile`")
+    void stream() throws IOException {
+        byte[] content = "# title\r\n\r\ntext\n".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(FileHelper.read(new ByteArrayInputStream(content)), "# title\n\ntext");
+    }
+}
@@ -0,0 +1,93 @@
+package fastype;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FormBodyPublisherTest {
+
+    @Test
+    @DisplayName("`FormBodyPublisher` encodes the same as `URLEncoder`")
+    void sameAsUrlEncoder() throws Exception {
+        Map<String, Object> fields = getFields();
+
+        byte[] body = new FormBodyPublisher(fields).open().readAllBytes();
+
+        assertEquals(new String(body, StandardCharsets.US_ASCII), encode(fields));
+    }
+
+    @Test
+    @DisplayName("`FormBodyPublisher` publishes exactly `contentLength` bytes")
+    void contentLength() {
+        Map<String, Object> fields = getFields();
+        fields.put("content", "<p>한글 본문</p>\n".repeat(10000));
+
+        FormBodyPublisher publisher = new FormBodyPublisher(fields);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                byte[] bytes = new byte[item.remaining()];
+                item.get(bytes);
+                out.writeBytes(bytes);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        done.join();
+
+        assertEquals(out.size(), publisher.contentLength());
+        assertEquals(out.toString(StandardCharsets.US_ASCII), encode(fields));
+    }
+
+    @Test
+    @DisplayName("`FormBodyPublisher` of no fields is empty")
+    void empty() throws Exception {
+        FormBodyPublisher publisher = new FormBodyPublisher(Map.of());
+
+        assertEquals(publisher.contentLength(), 0);
+        assertEquals(publisher.open().readAllBytes().length, 0);
+    }
+
+    private static String encode(Map<String, Object> fields) {
+        return fields.entrySet().stream()
+                .map(field -> URLEncoder.encode(field.getKey(), StandardCharsets.UTF_8) + "=" +
+                        URLEncoder.encode(String.valueOf(field.getValue()), StandardCharsets.UTF_8))
+                .collect(Collectors.joining("&"));
+    }
+
+    private static Map<String, Object> getFields() {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("post_id", 123);
+        fields.put("title", "제목 없음");
+        fields.put("sub_title", "");
+        fields.put("content", "<p class=\"a\">a.b-c*d_e ~!@#$%^&()+=/?</p>\n\té € 😀 \ud83d lone");
+        return fields;
+    }
+}
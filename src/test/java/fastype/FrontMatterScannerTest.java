@@ -0,0 +1,75 @@
+package fastype;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrontMatterScannerTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("`FrontMatterScanner` reads front matter the same as `collectFrontMatter`")
+    void sameAsRenderer() {
+        for (String markdown : new String[] {
+                "---\ntitle: this is title\nsubtitle: this is subtitle\n---\n\n# heading\n",
+                "---\ntags:\n  - java\n  -io\n- not a value\nid: 3\n...\nbody",
+                "\n \t\n---\ntitle: after blank lines\n---\n",
+                "---\r\ntitle: windows\r\nnote: |\r\n  first\r\n    second\r\n\r\n  third\r\n---\r\n",
+                "--- yaml\ntitle: a\ntitle: b\nempty:\nkey : not a key\n---\n",
+                "---\ntitle: never closed\nsubtitle: dropped\n\nparagraph\n",
+                "# heading\n\n---\ntitle: not front matter\n---\n",
+                "    ---\ntitle: indented\n---\n",
+                "---\na\u0000b: c\n---\n",
+                "",
+                "---",
+        }) {
+            Map<String, List<String>> expected = new MarkdownRenderer(markdown).collectFrontMatter();
+            Map<String, List<String>> actual = FrontMatterScanner.scan(markdown);
+
+            assertEquals(actual, expected, markdown);
+            assertEquals(new ArrayList<>(actual.keySet()), new ArrayList<>(expected.keySet()), markdown);
+        }
+    }
+
+    @Test
+    @DisplayName("`FrontMatterScanner` doesn't read past the front matter of a file")
+    void headerOnly() throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.writeBytes("---\ntitle: 제목\n---\n\n".getBytes(StandardCharsets.UTF_8));
+        // not UTF-8, so reading it would fail
+        content.writeBytes(new byte[] { 'a', (byte) 0xc3, '(' });
+        Path file = Files.write(dir.resolve("post.md"), content.toByteArray());
+
+        assertEquals(FrontMatterScanner.scan(file), Map.of("title", List.of("제목")));
+        assertThrows(CharacterCodingException.class, () -> FileHelper.readFile(file));
+
+        Path broken = Files.write(dir.resolve("broken.md"), new byte[] { '-', '-', '-', '\n', 'a', ':', (byte) 0xc3, '(' });
+        assertThrows(CharacterCodingException.class, () -> FrontMatterScanner.scan(broken));
+    }
+
+    @Test
+    @DisplayName("`FrontMatterScanner` reads front matter longer than its buffer")
+    void longFrontMatter() throws IOException {
+        StringBuilder markdown = new StringBuilder("---\r\ntags:\r\n");
+        for (int i = 0; i < 2000; i++) {
+            markdown.append("  - tag ").append(i).append("\r\n");
+        }
+        markdown.append("title: ").append("긴 제목 ".repeat(3000)).append("\r\n---\r\nbody\r\n");
+        Path file = Files.writeString(dir.resolve("long.md"), markdown);
+
+        assertEquals(FrontMatterScanner.scan(file), new MarkdownRenderer(file).collectFrontMatter());
+    }
+}
@@ -0,0 +1,170 @@
+package fastype;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageCacheTest {
+    private static final String etag = "\"v1\"";
+    private static final String lastModified = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+    private final PostypeClient client = new PostypeClient(HttpClient.newHttpClient(), new RequestScheduler(100, 4));
+    // path and conditional headers of each request
+    private final List<Map<String, String>> requests = new CopyOnWriteArrayList<>();
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+        // revalidated with `ETag` and `Last-Modified`
+        server.createContext("/etag", exchange -> {
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+            requests.add(Map.of("path", exchange.getRequestURI().getPath(),
+                    "If-None-Match", String.valueOf(ifNoneMatch),
+                    "If-Modified-Since", String.valueOf(ifModifiedSince)));
+
+            if (etag.equals(ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                exchange.getResponseHeaders().add("ETag", etag);
+                exchange.getResponseHeaders().add("Last-Modified", lastModified);
+                send(exchange, "image");
+            }
+        });
+
+        // fresh for an hour
+        server.createContext("/fresh", exchange -> {
+            requests.add(Map.of("path", exchange.getRequestURI().getPath()));
+            exchange.getResponseHeaders().add("Cache-Control", "public, max-age=3600");
+            send(exchange, "fresh " + exchange.getRequestURI().getPath());
+        });
+
+        server.createContext("/missing", exchange -> {
+            requests.add(Map.of("path", exchange.getRequestURI().getPath()));
+            exchange.sendResponseHeaders(404, 0);
+            exchange.getResponseBody().write("not found".getBytes(StandardCharsets.UTF_8));
+            exchange.close();
+        });
+
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    @DisplayName("`ImageCache` revalidates a cached image with a conditional request")
+    void revalidates() throws IOException {
+        ImageCache cache = new ImageCache(dir, client);
+
+        Path blob = cache.fetch(url("/etag")).join();
+        assertEquals(Files.readString(blob), "image");
+        assertEquals(requests.get(0).get("If-None-Match"), "null");
+
+        assertEquals(cache.fetch(url("/etag")).join(), blob);
+        assertEquals(requests.size(), 2);
+        assertEquals(requests.get(1).get("If-None-Match"), etag);
+        assertEquals(requests.get(1).get("If-Modified-Since"), lastModified);
+
+        // validators are remembered across runs
+        cache.save();
+        assertEquals(new ImageCache(dir, client).fetch(url("/etag")).join(), blob);
+        assertEquals(requests.get(2).get("If-None-Match"), etag);
+    }
+
+    @Test
+    @DisplayName("`ImageCache` doesn't request an image until its `max-age` expires")
+    void maxAge() throws IOException {
+        ImageCache cache = new ImageCache(dir, client);
+
+        Path blob = cache.fetch(url("/fresh/a.png")).join();
+
+        assertEquals(cache.fetch(url("/fresh/a.png")).join(), blob);
+        assertEquals(Files.readString(blob), "fresh /fresh/a.png");
+        assertEquals(requests.size(), 1);
+    }
+
+    @Test
+    @DisplayName("`ImageCache` downloads an image again if its blob was deleted")
+    void missingBlob() throws IOException {
+        ImageCache cache = new ImageCache(dir, client);
+
+        Path blob = cache.fetch(url("/etag")).join();
+        Files.delete(blob);
+
+        assertEquals(cache.fetch(url("/etag")).join(), blob);
+        assertEquals(Files.readString(blob), "image");
+        assertEquals(requests.size(), 2);
+        // not revalidated, as there is nothing to fall back to on 304
+        assertEquals(requests.get(1).get("If-None-Match"), "null");
+    }
+
+    @Test
+    @DisplayName("`ImageCache` fails on other statuses and leaves no download behind")
+    void failure() throws IOException {
+        ImageCache cache = new ImageCache(dir, client);
+
+        CompletionException e = assertThrows(CompletionException.class, () -> cache.fetch(url("/missing/a.png")).join());
+
+        assertTrue(e.getCause().getMessage().contains("404"), e.getCause().getMessage());
+        try (Stream<Path> files = Files.list(dir.resolve("blobs"))) {
+            assertEquals(files.collect(Collectors.toList()), List.of());
+        }
+    }
+
+    @Test
+    @DisplayName("`ImageCache` keeps what another process saved to the index")
+    void mergesIndex() {
+        ImageCache first = new ImageCache(dir, client);
+        ImageCache second = new ImageCache(dir, client);
+
+        first.fetch(url("/fresh/a.png")).join();
+        second.fetch(url("/fresh/b.png")).join();
+        first.save();
+        second.save();
+
+        ImageCache next = new ImageCache(dir, client);
+        next.fetch(url("/fresh/a.png")).join();
+        next.fetch(url("/fresh/b.png")).join();
+        assertEquals(requests.size(), 2);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private static void send(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}
@@ -0,0 +1,120 @@
+package fastype;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageDownloaderTest {
+    private final PostypeClient client = new PostypeClient(HttpClient.newHttpClient(), new RequestScheduler(100, 4));
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        // room for every connection a test opens at once, so that none is refused or reset
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        server.setExecutor(Executors.newCachedThreadPool());
+
+        // responds with its path after a while, so that each image is distinct
+        server.createContext("/slow", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            inFlight.decrementAndGet();
+
+            byte[] body = exchange.getRequestURI().getPath().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Connection", "close");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+
+        server.createContext("/missing", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    @DisplayName("`ImageDownloader` caps downloads in flight")
+    void capsConcurrency() throws IOException {
+        ImageDownloader downloader = new ImageDownloader(new ImageCache(dir.resolve("cache"), client), null, 3);
+        List<String> sources = IntStream.range(0, 12)
+                .mapToObj(i -> url("/slow/" + i + ".png"))
+                .collect(Collectors.toList());
+
+        long failed = downloader.download(dir.resolve("images"), sources);
+
+        assertEquals(failed, 0);
+        assertEquals(images().size(), 12);
+        assertTrue(maxInFlight.get() <= 3, "max in flight: " + maxInFlight.get());
+        assertTrue(maxInFlight.get() > 1, "max in flight: " + maxInFlight.get());
+    }
+
+    @Test
+    @DisplayName("`ImageDownloader` skips images which fail without failing the others")
+    void skipsFailures() throws IOException {
+        // a single permit, so that a failure which doesn't release it blocks the next download
+        ImageDownloader downloader = new ImageDownloader(new ImageCache(dir.resolve("cache"), client), null, 1);
+        List<String> sources = List.of(
+                url("/slow/a.png"),
+                url("/missing/b.png"),
+                "not a url.png",
+                // a url `HttpRequest` rejects, as it has no host
+                "http:/no-host.png",
+                "./local.png",
+                url("/slow/c.png"));
+
+        long failed = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> downloader.download(dir.resolve("images"), sources));
+
+        assertEquals(failed, 4);
+        List<String> images = images();
+        assertEquals(images.size(), 2);
+        assertTrue(images.stream().anyMatch(name -> name.endsWith("_a.png")), images.toString());
+        assertTrue(images.stream().anyMatch(name -> name.endsWith("_c.png")), images.toString());
+    }
+
+    private List<String> images() throws IOException {
+        try (Stream<Path> files = Files.list(dir.resolve("images"))) {
+            return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+}
@@ -0,0 +1,89 @@
+package fastype;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageProcessorTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("`ImageProcessor` downscales and recompresses an opaque image to JPEG")
+    void downscale() throws IOException {
+        Path source = writePng("screenshot.png", 2400, 1200, BufferedImage.TYPE_INT_RGB);
+        ImageProcessor processor = new ImageProcessor(dir.resolve("cache"), 800, 0.8f);
+
+        Path processed = processor.process(source).join();
+
+        assertTrue(processed.toString().endsWith(".jpg"));
+        assertTrue(Files.size(processed) < Files.size(source));
+        BufferedImage image = ImageIO.read(processed.toFile());
+        assertEquals(image.getWidth(), 800);
+        assertEquals(image.getHeight(), 400);
+
+        // cached by source and settings
+        assertEquals(processor.process(source).join(), processed);
+        assertNotEquals(new ImageProcessor(dir.resolve("cache"), 400, 0.8f).process(source).join(), processed);
+    }
+
+    @Test
+    @DisplayName("`ImageProcessor` keeps transparency as PNG")
+    void keepsAlpha() throws IOException {
+        Path source = writePng("icon.png", 1600, 1600, BufferedImage.TYPE_INT_ARGB);
+
+        Path processed = new ImageProcessor(dir.resolve("cache"), 400, 0.8f).process(source).join();
+
+        assertTrue(processed.toString().endsWith(".png"));
+        assertTrue(ImageIO.read(processed.toFile()).getColorModel().hasAlpha());
+    }
+
+    @Test
+    @DisplayName("`ImageProcessor` leaves files which aren't images as they are")
+    void notAnImage() throws IOException {
+        Path source = Files.writeString(dir.resolve("notes.png"), "not an image");
+
+        assertEquals(new ImageProcessor(dir.resolve("cache"), 400, 0.8f).process(source).join(), source);
+    }
+
+    @Test
+    @DisplayName("`ImageProcessor` leaves images it fails to decode as they are")
+    void undecodable() throws IOException {
+        // a PNG reader is found by the signature, but the image is cut short
+        Path png = writePng("screenshot.png", 2400, 1200, BufferedImage.TYPE_INT_RGB);
+        byte[] bytes = Files.readAllBytes(png);
+        Path source = Files.write(dir.resolve("truncated.png"), Arrays.copyOf(bytes, 100));
+        ImageProcessor processor = new ImageProcessor(dir.resolve("cache"), 400, 0.8f);
+
+        assertEquals(processor.process(source).join(), source);
+        try (Stream<Path> files = Files.list(dir.resolve("cache"))) {
+            assertTrue(files.anyMatch(file -> file.toString().endsWith(".skip")));
+        }
+    }
+
+    private Path writePng(String name, int width, int height, int type) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D graphics = image.createGraphics();
+        for (int x = 0; x < width; x += 10) {
+            graphics.setColor(new Color(x % 256, (x * 7) % 256, (x * 13) % 256, type == BufferedImage.TYPE_INT_ARGB ? 128 : 255));
+            graphics.fillRect(x, 0, 10, height);
+        }
+        graphics.dispose();
+
+        Path file = dir.resolve(name);
+        ImageIO.write(image, "png", file.toFile());
+        return file;
+    }
+}
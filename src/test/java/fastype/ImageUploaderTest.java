@@ -0,0 +1,90 @@
+package fastype;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageUploaderTest {
+    private final AtomicInteger uploads = new AtomicInteger();
+    private final PostypeClient client = new PostypeClient(HttpClient.newHttpClient(), new RequestScheduler(100, 4));
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private URI endpoint;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+        // responds with the url of the image named by the uploaded content
+        server.createContext("/upload", exchange -> {
+            int id = uploads.incrementAndGet();
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String content = body.contains("image a") ? "a" : "b";
+
+            byte[] response = ("{\"data\":{\"url\":\"https://cdn.example.com/" + content + id + ".png\"}}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+
+        server.start();
+        endpoint = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/upload");
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    @DisplayName("`ImageUploader` uploads each distinct image once")
+    void uploadsDistinctImagesOnce() throws Exception {
+        Path a = Files.writeString(dir.resolve("a.png"), "image a");
+        Path copyOfA = Files.writeString(dir.resolve("copy of a.png"), "image a");
+        Path b = Files.writeString(dir.resolve("b.png"), "image b");
+        Path index = dir.resolve("uploads.yaml");
+
+        ImageUploader uploader = new ImageUploader(index, client, endpoint, "token");
+        List<CompletableFuture<String>> urls = List.of(uploader.upload(a), uploader.upload(copyOfA), uploader.upload(b));
+
+        assertEquals(urls.get(0).join(), urls.get(1).join());
+        assertTrue(urls.get(2).join().contains("/b"));
+        assertEquals(uploads.get(), 2);
+
+        uploader.save();
+
+        // uploaded urls are remembered across runs
+        ImageUploader next = new ImageUploader(index, client, endpoint, "token");
+        assertEquals(next.upload(copyOfA).join(), urls.get(0).join());
+        assertEquals(uploads.get(), 2);
+    }
+
+    @Test
+    @DisplayName("`ImageUploader` finds the url in the response")
+    void parseUrl() {
+        assertEquals(ImageUploader.parseUrl("{\"url\":\"https://a\"}"), "https://a");
+        assertEquals(ImageUploader.parseUrl("{\"data\":{\"src\":\"https://b\"}}"), "https://b");
+        assertNull(ImageUploader.parseUrl("not json"));
+        assertNull(ImageUploader.parseUrl(""));
+    }
+}
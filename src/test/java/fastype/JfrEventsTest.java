@@ -0,0 +1,55 @@
+package fastype;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.commonmark.node.Node;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JfrEventsTest {
+    private static final String markdown = "# title\n\nsome *text* and ![image](https://example.com/a.png)\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("`countNodes` counts every node of the document")
+    void countNodes() {
+        Node document = PostypeMarkdownEngine.getDefault().parse(markdown);
+
+        // document, heading, text, paragraph, text, emphasis, text, text, image, text
+        assertEquals(JfrEvents.countNodes(document), 10);
+    }
+
+    @Test
+    @DisplayName("a recording has parse and render events of `MarkdownRenderer`")
+    void recordsRender() throws IOException {
+        Path file = dir.resolve("fastype.jfr");
+
+        Recording recording = JfrEvents.start(file);
+        new MarkdownRenderer(markdown).render();
+        recording.stop();
+        recording.close();
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().startsWith("fastype."))
+                .collect(Collectors.toList());
+
+        RecordedEvent parse = events.stream().filter(event -> event.getEventType().getName().equals("fastype.Parse")).findFirst().orElseThrow();
+        assertEquals(parse.getInt("characters"), markdown.length());
+        assertEquals(parse.getInt("nodes"), 10);
+
+        RecordedEvent render = events.stream().filter(event -> event.getEventType().getName().equals("fastype.Render")).findFirst().orElseThrow();
+        assertEquals(render.getInt("images"), 1);
+        assertTrue(render.getInt("htmlCharacters") > 0);
+    }
+}
@@ -3,10 +3,16 @@ package fastype;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -25,7 +31,7 @@ class MarkdownRendererTest {
 
     @Test
     @DisplayName("`MarkdownRenderer` can render from markdown file")
-    void fromMarkdownFile() {
+    void fromMarkdownFile() throws IOException {
         Path mdFile = Paths.get(System.getProperty("user.dir"), "src/test/assets/sample.md");
 
         PostypeRenderer renderer = new MarkdownRenderer(mdFile);
@@ -57,6 +63,145 @@ class MarkdownRendererTest {
         assertEquals(frontMatter.get("subtitle").get(0), "this is subtitle");
     }
 
+    @Test
+    @DisplayName("`MarkdownRenderer` can render the same document repeatedly")
+    void renderTwice() {
+        String markdown = getMarkdownString();
+        PostypeMarkdownEngine engine = PostypeMarkdownEngine.getDefault();
+        MarkdownRenderer renderer = new MarkdownRenderer(markdown, engine);
+
+        RenderResult first = engine.render(renderer.document);
+        RenderResult second = engine.render(renderer.document);
+
+        assertEquals(first.getHtml(), getPostypeHtml());
+        assertEquals(second.getHtml(), getPostypeHtml());
+        assertEquals(first.getImages(), second.getImages());
+    }
+
+    @Test
+    @DisplayName("`MarkdownRenderer` collects images, front matter and stats while rendering")
+    void renderResult() {
+        PostypeRenderer renderer = new MarkdownRenderer("---\n" +
+                "title: this is title\n" +
+                "---\n" +
+                "\n" +
+                "# Hello *wor*ld\n" +
+                "\n" +
+                "some `inline code` and\n" +
+                "![image](https://example.com/a.png) ![image](./b.png)\n");
+
+        RenderResult result = renderer.renderResult();
+
+        assertEquals(result.getImages(), List.of("https://example.com/a.png", "./b.png"));
+        assertEquals(result.getFrontMatter().get("title"), List.of("this is title"));
+        assertEquals(result.getWordCount(), 6);
+        assertEquals(renderer.collectImages().size(), 2);
+    }
+
+    @Test
+    @DisplayName("`MarkdownRenderer` renders images with the sources they are replaced by, e.g. uploaded urls")
+    void rewritesImageSources() {
+        Map<String, String> urls = Map.of("./a.png", "https://cdn.example.com/a.png");
+        MarkdownRenderer renderer = new MarkdownRenderer("![a](./a.png) ![b](https://example.com/b.png)");
+
+        RenderResult result = renderer.renderResult(image -> urls.getOrDefault(image, image));
+
+        assertEquals(renderer.imageDestinations(), List.of("./a.png", "https://example.com/b.png"));
+        assertEquals(result.getImages(), List.of("./a.png", "https://example.com/b.png"));
+        assertTrue(result.getHtml().contains("src=\"https://cdn.example.com/a.png\""));
+        assertTrue(result.getHtml().contains("src=\"https://example.com/b.png\""));
+    }
+
+    @Test
+    @DisplayName("`PostypeMarkdownEngine` can be shared by documents rendered concurrently")
+    void sharedEngine() {
+        String markdown = getMarkdownString();
+        PostypeMarkdownEngine engine = new PostypeMarkdownEngine();
+
+        List<String> posts = IntStream.range(0, 16)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> new MarkdownRenderer(markdown, engine).render()))
+                .collect(Collectors.toList())
+                .stream()
+                .map(CompletableFuture::join)
+                .collect(Collectors.toList());
+
+        for (String post : posts) {
+            assertEquals(post, getPostypeHtml());
+        }
+    }
+
+    @Test
+    @DisplayName("`MarkdownRenderer` renders incrementally the same as at once")
+    void incremental() {
+        String markdown = getMarkdownString();
+        BlockCache blockCache = new BlockCache();
+
+        MarkdownRenderer first = new MarkdownRenderer(markdown, blockCache);
+        assertTrue(first.blocks.size() > 10, first.blocks.size() + " blocks");
+        assertEquals(first.render(), getPostypeHtml());
+
+        String edited = markdown.replaceFirst("(?m)^## ", "## edited ");
+        MarkdownRenderer second = new MarkdownRenderer(edited, blockCache);
+
+        // only the edited block is parsed again
+        assertEquals(second.blocks.stream().filter(block -> block.document != null).count(), 1L);
+        RenderResult expected = new MarkdownRenderer(edited).renderResult();
+        RenderResult actual = second.renderResult();
+        assertEquals(actual.getHtml(), expected.getHtml());
+        assertEquals(actual.getImages(), expected.getImages());
+        assertEquals(actual.getFrontMatter(), expected.getFrontMatter());
+        assertEquals(actual.getWordCount(), expected.getWordCount());
+        assertEquals(actual.getCharacterCount(), expected.getCharacterCount());
+        assertEquals(actual.split(3000), expected.split(3000));
+        assertEquals(second.imageDestinations(), new MarkdownRenderer(edited).imageDestinations());
+    }
+
+    @Test
+    @DisplayName("`MarkdownRenderer` renders in parallel the same as on one thread")
+    void parallel() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            MarkdownRenderer renderer = new MarkdownRenderer(getMarkdownString(), pool);
+            assertTrue(renderer.blocks.size() > 1, renderer.blocks.size() + " runs");
+            assertEquals(renderer.render(), getPostypeHtml());
+
+            // the front matter, images and code blocks of every copy but the first are in other runs
+            String markdown = getMarkdownString().repeat(20);
+            Function<String, String> sources = image -> "https://cdn.example.com/" + image.hashCode();
+            RenderResult expected = new MarkdownRenderer(markdown).renderResult(sources);
+            RenderResult actual = new MarkdownRenderer(markdown, pool).renderResult(sources);
+
+            assertEquals(actual.getHtml(), expected.getHtml());
+            assertEquals(actual.getImages(), expected.getImages());
+            assertEquals(actual.getFrontMatter(), expected.getFrontMatter());
+            assertEquals(actual.getWordCount(), expected.getWordCount());
+            assertEquals(actual.getCharacterCount(), expected.getCharacterCount());
+            assertEquals(actual.split(3000), expected.split(3000));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("`RenderResult` can be split between top-level blocks")
+    void split() {
+        RenderResult result = new MarkdownRenderer(getMarkdownString()).renderResult();
+
+        List<String> parts = result.split(3000);
+
+        assertTrue(parts.size() > 1);
+        assertEquals(String.join("", parts), getPostypeHtml());
+        for (String part : parts) {
+            assertTrue(part.length() <= 3000, "part of " + part.length() + " characters");
+        }
+        // every part after the first starts at a heading or a block
+        for (String part : parts.subList(1, parts.size())) {
+            assertTrue(part.strip().startsWith("<"));
+        }
+        assertTrue(parts.stream().skip(1).anyMatch(part -> part.strip().startsWith("<h")));
+        assertEquals(result.split(getPostypeHtml().length()), List.of(getPostypeHtml()));
+    }
+
     private String getMarkdownString() {
         return "---\n" +
                 "title: this is title\n" +
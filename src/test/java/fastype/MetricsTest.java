@@ -0,0 +1,43 @@
+package fastype;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    @Test
+    @DisplayName("`Metrics.Timer` percentiles are within the bucket precision")
+    void percentiles() {
+        Metrics.Timer timer = new Metrics.Timer();
+        for (long millis = 1; millis <= 1000; millis++) {
+            timer.record(millis * 1_000_000);
+        }
+
+        assertEquals(timer.count(), 1000);
+        assertEquals(timer.max(), 1000 * 1_000_000L);
+        assertEquals(timer.percentile(0.5) / 1e6, 500, 500 * 0.1);
+        assertEquals(timer.percentile(0.99) / 1e6, 990, 990 * 0.1);
+        assertTrue(timer.percentile(1.0) <= timer.max());
+    }
+
+    @Test
+    @DisplayName("`Metrics` reports hit rates of caches")
+    void report() {
+        Metrics.reset();
+        Metrics.count("test.hit", 3);
+        Metrics.count("test.miss");
+        Metrics.time("test.phase", () -> "done");
+
+        String json = Metrics.report("json");
+        String text = Metrics.report("text");
+
+        assertTrue(json.contains("\"test\" : 0.75"), json);
+        assertTrue(json.contains("\"test.phase\""), json);
+        assertTrue(text.contains("75.0%"), text);
+
+        Metrics.reset();
+        assertFalse(Metrics.report("json").contains("test"));
+    }
+}
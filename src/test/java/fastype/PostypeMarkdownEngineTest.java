@@ -0,0 +1,53 @@
+package fastype;
+
+import org.commonmark.node.Node;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class PostypeMarkdownEngineTest {
+    private final PostypeMarkdownEngine engine = PostypeMarkdownEngine.getDefault();
+
+    @Test
+    @DisplayName("custom node renderers write the same html as the core renderers with Postype's attributes")
+    void nodeRenderers() {
+        String html = engine.render(engine.parse(
+                "## heading\n\n> [link](https://example.com/?a=1&b=2 \"say \\\"hi\\\"\") `a < b`\n\n```Dockerfile\nFROM x\n```\n\n```unknown\n<x>\n```\n")).getHtml();
+
+        assertEquals(html, "<h4>heading</h4>\n" +
+                "<blockquote class=\"blockquote-type2\">\n" +
+                "<p><a href=\"https://example.com/?a=1&amp;b=2\" title=\"say &quot;hi&quot;\" rel=\"nofollow noopener noreferrer\" target=\"_blank\">link</a> " +
+                "<span style=\"color: rgb(112, 112, 112);\"><em>a &lt; b</em></span></p>\n" +
+                "</blockquote>\n" +
+                "<div class=\"element-editor-container code\" contenteditable=\"false\"><pre data-type=\"text/x-dockerfile\">FROM x\n</pre></div>" +
+                "<div class=\"element-editor-container code\" contenteditable=\"false\"><pre data-type=\"text/plain\">&lt;x&gt;\n</pre></div>");
+    }
+
+    @Test
+    @DisplayName("rendering allocates little more per node than the html it writes")
+    void allocation() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        // every node but text is drawn by a renderer of the engine or has Postype's attributes
+        Node document = engine.parse("## heading\n\n`code` and [link](https://example.com) `more`\n\n> quote\n\n```java\nint a;\n```\n\n".repeat(1000));
+        int nodes = JfrEvents.countNodes(document);
+
+        // the least of a few renders once warmed up, as the first ones load classes and run in the interpreter
+        long least = Long.MAX_VALUE;
+        for (int i = 0; i < 30; i++) {
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            engine.render(document);
+            least = Math.min(least, threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before);
+        }
+
+        // about 140 bytes, most of it the 33 characters of html per node growing the output and copied out of it.
+        // Maps of attributes and strings built for each node made it 240 bytes
+        long perNode = least / nodes;
+        assertTrue(perNode <= 160, perNode + " bytes allocated per node");
+    }
+}
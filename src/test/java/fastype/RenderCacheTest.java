@@ -0,0 +1,109 @@
+package fastype;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RenderCacheTest {
+    private static final String markdown = "---\ntitle: 제목\n---\n# heading\n\ntext ![image](./a.png)\n\n## more\n\n" + "long ".repeat(20000) + "\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("`RenderCache` returns the result it stored")
+    void roundTrip() {
+        RenderCache cache = new RenderCache(dir, "engine", Long.MAX_VALUE);
+        String hash = FileHelper.sha256(markdown);
+        RenderResult result = new MarkdownRenderer(markdown).renderResult(image -> "https://example.com/a.png");
+
+        assertNull(cache.get(hash));
+        cache.put(hash, result, Map.of("./a.png", "https://example.com/a.png"));
+
+        RenderCache.Entry entry = new RenderCache(dir, "engine", Long.MAX_VALUE).get(hash);
+        assertNotNull(entry);
+        assertEquals(entry.result.getHtml(), result.getHtml());
+        assertEquals(entry.result.getImages(), result.getImages());
+        assertEquals(entry.result.getFrontMatter(), result.getFrontMatter());
+        assertEquals(entry.result.getWordCount(), result.getWordCount());
+        assertEquals(entry.result.getCharacterCount(), result.getCharacterCount());
+        assertEquals(entry.result.split(1000), result.split(1000));
+        assertEquals(entry.imageSources, Map.of("./a.png", "https://example.com/a.png"));
+    }
+
+    @Test
+    @DisplayName("`RenderCache` misses once the engine fingerprint changes")
+    void fingerprint() {
+        String hash = FileHelper.sha256(markdown);
+        new RenderCache(dir, "engine", Long.MAX_VALUE).put(hash, new MarkdownRenderer(markdown).renderResult(), Map.of());
+
+        assertNull(new RenderCache(dir, "changed engine", Long.MAX_VALUE).get(hash));
+    }
+
+    @Test
+    @DisplayName("`RenderCache` treats a truncated entry as a miss")
+    void truncated() throws IOException {
+        RenderCache cache = new RenderCache(dir, "engine", Long.MAX_VALUE);
+        String hash = FileHelper.sha256(markdown);
+        cache.put(hash, new MarkdownRenderer(markdown).renderResult(), Map.of());
+
+        try (Stream<Path> files = Files.list(dir)) {
+            Path file = files.filter(path -> !path.getFileName().toString().startsWith(".")).findFirst().orElseThrow();
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+        }
+
+        assertNull(cache.get(hash));
+        assertNull(cache.get(hash));
+    }
+
+    @Test
+    @DisplayName("`RenderCache` evicts the least recently used entries over its size")
+    void evicts() throws IOException {
+        RenderCache cache = new RenderCache(dir, "engine", 1);
+        List<String> hashes = List.of("a", "b", "c");
+        for (String hash : hashes) {
+            cache.put(hash, new MarkdownRenderer("# " + hash).renderResult(), Map.of());
+        }
+
+        assertTrue(entries().isEmpty());
+
+        cache = new RenderCache(dir, "engine", Long.MAX_VALUE);
+        for (String hash : hashes) {
+            cache.put(hash, new MarkdownRenderer("# " + hash).renderResult(), Map.of());
+        }
+        List<Path> files = entries();
+        long size = Files.size(files.get(0));
+
+        // "a" is read last, so it's the most recently used
+        long now = System.currentTimeMillis();
+        for (Path file : files) {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(now - 60_000));
+        }
+        assertNotNull(cache.get("a"));
+
+        new RenderCache(dir, "engine", size * 2).trim();
+
+        RenderCache trimmed = new RenderCache(dir, "engine", Long.MAX_VALUE);
+        assertEquals(entries().size(), 1);
+        assertNotNull(trimmed.get("a"));
+    }
+
+    private List<Path> entries() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> !path.getFileName().toString().startsWith(".")).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package fastype;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestSchedulerTest {
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        // room for every connection a test opens at once, so that none is refused or reset
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+
+        // throttles the first two requests
+        server.createContext("/throttled", exchange -> {
+            if (hits.incrementAndGet() <= 2) {
+                exchange.getResponseHeaders().add("Retry-After", "0");
+                exchange.sendResponseHeaders(429, -1);
+            } else {
+                exchange.sendResponseHeaders(200, -1);
+            }
+            exchange.close();
+        });
+
+        server.createContext("/unavailable", exchange -> {
+            hits.incrementAndGet();
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+
+        server.createContext("/slow", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            inFlight.decrementAndGet();
+            // a kept-alive connection may be closed by the server just as the client reuses it, and the reset request retried
+            exchange.getResponseHeaders().add("Connection", "close");
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("`RequestScheduler` retries throttled requests after `Retry-After`")
+    void retriesThrottled() {
+        RequestScheduler scheduler = new RequestScheduler(100, 4);
+
+        HttpResponse<Void> res = scheduler.submit(() -> get("/throttled"), true).join();
+
+        assertEquals(res.statusCode(), 200);
+        assertEquals(hits.get(), 3);
+
+        RequestScheduler.Counters counters = scheduler.counters();
+        assertEquals(counters.retries, 2);
+        assertEquals(counters.throttled, 2);
+        assertEquals(counters.failed, 0);
+        // 4 halved twice, then +1/1 for the success
+        assertEquals(counters.concurrencyLimit, 2);
+    }
+
+    @Test
+    @DisplayName("`RequestScheduler` gives up after the last attempt")
+    void givesUp() {
+        RequestScheduler scheduler = new RequestScheduler(100, 4);
+
+        HttpResponse<Void> res = scheduler.submit(() -> get("/unavailable"), true).join();
+
+        assertEquals(res.statusCode(), 503);
+        assertEquals(hits.get(), 4);
+        assertEquals(scheduler.counters().failed, 1);
+    }
+
+    @Test
+    @DisplayName("`RequestScheduler` caps requests in flight")
+    void capsConcurrency() {
+        RequestScheduler scheduler = new RequestScheduler(1000, 3);
+
+        List<CompletableFuture<HttpResponse<Void>>> futures = IntStream.range(0, 20)
+                .mapToObj(i -> scheduler.submit(() -> get("/slow"), true))
+                .collect(Collectors.toList());
+        futures.forEach(CompletableFuture::join);
+
+        assertTrue(maxInFlight.get() <= 3, "max in flight: " + maxInFlight.get());
+        assertEquals(scheduler.counters().attempts, 20);
+    }
+
+    @Test
+    @DisplayName("`RequestScheduler` paces requests to its rate")
+    void pacesRequests() {
+        // bursts 10 requests, then 1 per 100ms
+        RequestScheduler scheduler = new RequestScheduler(10, 10);
+
+        long startedAt = System.nanoTime();
+        List<CompletableFuture<HttpResponse<Void>>> futures = IntStream.range(0, 15)
+                .mapToObj(i -> scheduler.submit(() -> get("/slow"), true))
+                .collect(Collectors.toList());
+        futures.forEach(CompletableFuture::join);
+        long elapsedMillis = (System.nanoTime() - startedAt) / 1_000_000;
+
+        assertTrue(elapsedMillis >= 450 && elapsedMillis < 2000, "elapsed: " + elapsedMillis);
+    }
+
+    private CompletableFuture<HttpResponse<Void>> get(String path) {
+        HttpRequest req = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path))
+                .GET()
+                .build();
+        return client.sendAsync(req, HttpResponse.BodyHandlers.discarding());
+    }
+}